@@ -0,0 +1,259 @@
+package org.dmfs.android.retentionmagic;
+
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.dmfs.android.retentionmagic.annotations.Parameter;
+import org.dmfs.android.retentionmagic.annotations.Retain;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+
+/**
+ * Verifies that the steady-state paths for primitive and {@link String} fields don't allocate. The values are chosen so the {@link Bundle} doesn't have to
+ * allocate either (small boxed values are cached and all keys exist already).
+ * <p>
+ * Permanent fields use the default class name space. Keys that depend on the instance (a non-static <code>TAG</code> or an instance name space) are built on
+ * each call and are not covered.
+ * </p>
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+@RunWith(AndroidJUnit4.class)
+@SuppressWarnings("deprecation")
+public class AllocationTest
+{
+    private final static int WARMUP = 200;
+
+    private final static int ITERATIONS = 100;
+
+
+    @Test
+    public void storeAndRestoreReflective() throws Exception
+    {
+        storeAndRestore(RetentionMagic.REFLECTIVE_ENGINE);
+    }
+
+
+    @Test
+    public void storeAndRestoreGenerated() throws Exception
+    {
+        storeAndRestore(RetentionMagic.GENERATED_ENGINE);
+    }
+
+
+    @Test
+    public void injectReflective() throws Exception
+    {
+        inject(RetentionMagic.REFLECTIVE_ENGINE);
+    }
+
+
+    @Test
+    public void injectGenerated() throws Exception
+    {
+        inject(RetentionMagic.GENERATED_ENGINE);
+    }
+
+
+    @Test
+    public void initReflective() throws Exception
+    {
+        init(RetentionMagic.REFLECTIVE_ENGINE);
+    }
+
+
+    @Test
+    public void initGenerated() throws Exception
+    {
+        init(RetentionMagic.GENERATED_ENGINE);
+    }
+
+
+    @Test
+    public void persistReflective() throws Exception
+    {
+        persist(RetentionMagic.REFLECTIVE_ENGINE);
+    }
+
+
+    @Test
+    public void persistGenerated() throws Exception
+    {
+        persist(RetentionMagic.GENERATED_ENGINE);
+    }
+
+
+    private void storeAndRestore(RetentionEngine engine) throws Exception
+    {
+        PrimitiveFragment fragment = new PrimitiveFragment();
+        Bundle state = new Bundle();
+
+        RetentionMagic.setEngine(PrimitiveFragment.class, engine);
+        try
+        {
+            for (int i = 0; i < WARMUP; ++i)
+            {
+                RetentionMagic.store(fragment, state);
+                RetentionMagic.restore(fragment, state);
+            }
+
+            Debug.startAllocCounting();
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < ITERATIONS; ++i)
+            {
+                RetentionMagic.store(fragment, state);
+                RetentionMagic.restore(fragment, state);
+            }
+            int allocations = Debug.getThreadAllocCount();
+            Debug.stopAllocCounting();
+
+            assertEquals("allocations in store and restore", 0, allocations);
+            assertEquals("string", fragment.mString);
+        }
+        finally
+        {
+            RetentionMagic.setEngine(PrimitiveFragment.class, null);
+        }
+    }
+
+
+    private void inject(RetentionEngine engine) throws Exception
+    {
+        PrimitiveFragment fragment = new PrimitiveFragment();
+        Bundle arguments = new Bundle();
+        arguments.putInt("count", 5);
+        arguments.putString("title", "title");
+
+        RetentionMagic.setEngine(PrimitiveFragment.class, engine);
+        try
+        {
+            for (int i = 0; i < WARMUP; ++i)
+            {
+                RetentionMagic.init(fragment, arguments);
+            }
+
+            Debug.startAllocCounting();
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < ITERATIONS; ++i)
+            {
+                RetentionMagic.init(fragment, arguments);
+            }
+            int allocations = Debug.getThreadAllocCount();
+            Debug.stopAllocCounting();
+
+            assertEquals("allocations in inject", 0, allocations);
+            assertEquals("title", fragment.mTitle);
+        }
+        finally
+        {
+            RetentionMagic.setEngine(PrimitiveFragment.class, null);
+        }
+    }
+
+
+    private void init(RetentionEngine engine) throws Exception
+    {
+        PrimitiveFragment fragment = new PrimitiveFragment();
+        SharedPreferences prefs = InstrumentationRegistry.getTargetContext().getSharedPreferences("allocation-test", 0);
+        // write all keys once, so the preferences are loaded and contain a value for every field
+        SharedPreferences.Editor editor = prefs.edit().clear();
+        RetentionMagic.persist(fragment, editor);
+        editor.commit();
+
+        RetentionMagic.setEngine(PrimitiveFragment.class, engine);
+        try
+        {
+            for (int i = 0; i < WARMUP; ++i)
+            {
+                RetentionMagic.init(fragment, prefs);
+            }
+
+            Debug.startAllocCounting();
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < ITERATIONS; ++i)
+            {
+                RetentionMagic.init(fragment, prefs);
+            }
+            int allocations = Debug.getThreadAllocCount();
+            Debug.stopAllocCounting();
+
+            assertEquals("allocations in init", 0, allocations);
+        }
+        finally
+        {
+            RetentionMagic.setEngine(PrimitiveFragment.class, null);
+        }
+    }
+
+
+    private void persist(RetentionEngine engine) throws Exception
+    {
+        PrimitiveFragment fragment = new PrimitiveFragment();
+        SharedPreferences prefs = InstrumentationRegistry.getTargetContext().getSharedPreferences("allocation-test", 0);
+        // write all keys once, so persisting the unchanged values has nothing to write
+        SharedPreferences.Editor editor = prefs.edit().clear();
+        RetentionMagic.persist(fragment, editor);
+        editor.commit();
+
+        RetentionMagic.setEngine(PrimitiveFragment.class, engine);
+        try
+        {
+            for (int i = 0; i < WARMUP; ++i)
+            {
+                RetentionMagic.persist(fragment, prefs);
+            }
+
+            Debug.startAllocCounting();
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < ITERATIONS; ++i)
+            {
+                RetentionMagic.persist(fragment, prefs);
+            }
+            int allocations = Debug.getThreadAllocCount();
+            Debug.stopAllocCounting();
+
+            assertEquals("allocations in persist", 0, allocations);
+            assertEquals("permanent", prefs.getString("PrimitiveFragment.mPermanentString", null));
+        }
+        finally
+        {
+            RetentionMagic.setEngine(PrimitiveFragment.class, null);
+        }
+    }
+
+
+    public static class PrimitiveFragment extends android.support.v4.app.Fragment
+    {
+        private final static String TAG = "PrimitiveFragment";
+
+        @Retain
+        int mInt = 5;
+
+        @Retain
+        long mLong = 6;
+
+        @Retain
+        boolean mBoolean = true;
+
+        @Retain
+        String mString = "string";
+
+        @Retain(permanent = true)
+        int mPermanentInt = 7;
+
+        @Retain(permanent = true)
+        String mPermanentString = "permanent";
+
+        @Parameter(key = "count")
+        int mCount;
+
+        @Parameter(key = "title")
+        String mTitle;
+    }
+}
@@ -0,0 +1,70 @@
+package org.dmfs.android.retentionmagic;
+
+import android.os.Bundle;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.dmfs.android.retentionmagic.annotations.Retain;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+
+/**
+ * Verifies that fields of the same class that use the same key are stored in declaration order, so the last field wins with every engine, regardless of the
+ * types of the fields.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+@RunWith(AndroidJUnit4.class)
+public class DuplicateKeyTest
+{
+    @Test
+    public void lastFieldWinsWithReflectiveEngine() throws Exception
+    {
+        assertLastFieldWins(RetentionMagic.REFLECTIVE_ENGINE);
+    }
+
+
+    @Test
+    public void lastFieldWinsWithGeneratedEngine() throws Exception
+    {
+        assertLastFieldWins(RetentionMagic.GENERATED_ENGINE);
+    }
+
+
+    private void assertLastFieldWins(RetentionEngine engine)
+    {
+        RetentionMagic.setEngine(DuplicateKeyFragment.class, engine);
+        try
+        {
+            DuplicateKeyFragment fragment = new DuplicateKeyFragment();
+            fragment.mFirst = 1;
+            fragment.mSecond = 2;
+            Bundle bundle = new Bundle();
+            RetentionMagic.store(fragment, bundle);
+
+            // the value of the int field must have overwritten the value of the long field, which is declared first
+            assertEquals(2, bundle.get("key"));
+
+            DuplicateKeyFragment restored = new DuplicateKeyFragment();
+            RetentionMagic.restore(restored, bundle);
+            assertEquals(0, restored.mFirst);
+            assertEquals(2, restored.mSecond);
+        }
+        finally
+        {
+            RetentionMagic.setEngine(DuplicateKeyFragment.class, null);
+        }
+    }
+
+
+    public static class DuplicateKeyFragment extends android.support.v4.app.Fragment
+    {
+        @Retain(key = "key")
+        long mFirst;
+
+        @Retain(key = "key")
+        int mSecond;
+    }
+}
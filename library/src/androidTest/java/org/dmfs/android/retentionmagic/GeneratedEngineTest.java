@@ -0,0 +1,52 @@
+package org.dmfs.android.retentionmagic;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.dmfs.android.retentionmagic.annotations.Parameter;
+import org.dmfs.android.retentionmagic.annotations.Retain;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertNotNull;
+
+
+/**
+ * Verifies that the annotation processor generates all binders of a class, so the {@link GeneratedEngine} doesn't fall back to reflection for operations
+ * that have nothing to do.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+@RunWith(AndroidJUnit4.class)
+public class GeneratedEngineTest
+{
+    @Test
+    public void generatesAllBindersForStateOnlyClasses() throws Exception
+    {
+        assertNotNull(Binders.getStateBinder(StateOnlyFragment.class));
+        assertNotNull(Binders.getPreferencesBinder(StateOnlyFragment.class));
+        assertNotNull(Binders.getParameterInjector(StateOnlyFragment.class));
+    }
+
+
+    @Test
+    public void generatesAllBindersForParameterOnlyClasses() throws Exception
+    {
+        assertNotNull(Binders.getStateBinder(ParameterOnlyFragment.class));
+        assertNotNull(Binders.getPreferencesBinder(ParameterOnlyFragment.class));
+        assertNotNull(Binders.getParameterInjector(ParameterOnlyFragment.class));
+    }
+
+
+    public static class StateOnlyFragment extends android.support.v4.app.Fragment
+    {
+        @Retain
+        int mState;
+    }
+
+
+    public static class ParameterOnlyFragment extends android.support.v4.app.Fragment
+    {
+        @Parameter(key = "title")
+        String mTitle;
+    }
+}
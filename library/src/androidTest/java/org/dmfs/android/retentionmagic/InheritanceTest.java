@@ -0,0 +1,71 @@
+package org.dmfs.android.retentionmagic;
+
+import android.content.SharedPreferences;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.dmfs.android.retentionmagic.annotations.Retain;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+
+/**
+ * Verifies the binders the annotation processor generates for class hierarchies. The fixtures are compiled by the processor, so a binder that doesn't
+ * compile fails the build of the tests.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+@RunWith(AndroidJUnit4.class)
+public class InheritanceTest
+{
+    @Test
+    public void persistsHiddenFields() throws Exception
+    {
+        assertNotNull(Binders.getPreferencesBinder(HidingFragment.class));
+
+        SharedPreferences prefs = InstrumentationRegistry.getTargetContext().getSharedPreferences("inheritance-test", 0);
+        HidingFragment fragment = new HidingFragment();
+        fragment.mCount = 1;
+        ((CountingFragment) fragment).mCount = 2;
+        SharedPreferences.Editor editor = prefs.edit();
+        RetentionMagic.persist(fragment, editor);
+        editor.commit();
+
+        HidingFragment restored = new HidingFragment();
+        RetentionMagic.init(restored, prefs);
+        assertEquals(1, restored.mCount);
+        assertEquals(2, ((CountingFragment) restored).mCount);
+    }
+
+
+    @Test
+    public void generatesBindersForSubclassesWithoutAnnotatedFields() throws Exception
+    {
+        assertNotNull(Binders.getStateBinder(InheritingFragment.class));
+        assertNotNull(Binders.getPreferencesBinder(InheritingFragment.class));
+    }
+
+
+    public static class CountingFragment extends SupportFragment
+    {
+        @Retain(permanent = true)
+        int mCount;
+    }
+
+
+    public static class HidingFragment extends CountingFragment
+    {
+        // hides CountingFragment.mCount
+        @Retain(permanent = true, key = "hidingCount")
+        int mCount;
+    }
+
+
+    public static class InheritingFragment extends CountingFragment
+    {
+        // no annotated fields of its own
+    }
+}
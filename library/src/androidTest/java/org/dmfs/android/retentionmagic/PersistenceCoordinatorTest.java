@@ -0,0 +1,281 @@
+package org.dmfs.android.retentionmagic;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.dmfs.android.retentionmagic.annotations.Retain;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Verifies that persisting several instances on the main thread results in a single transaction if coalescing is enabled and that write-behind defers the
+ * writes.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+@RunWith(AndroidJUnit4.class)
+public class PersistenceCoordinatorTest
+{
+    @Test
+    public void writesImmediatelyByDefault() throws Exception
+    {
+        File file = File.createTempFile("coordinator", ".prefs");
+        file.delete();
+        final SharedPreferences prefs = new MappedPreferences(file);
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                RetentionMagic.persist(new FirstFragment(), prefs);
+
+                assertEquals(1, prefs.getInt("first.mValue", 0));
+            }
+        });
+    }
+
+
+    @Test
+    public void coalescesWritesOnTheMainThread() throws Exception
+    {
+        File file = File.createTempFile("coordinator", ".prefs");
+        file.delete();
+        final CountingPreferences prefs = new CountingPreferences(new MappedPreferences(file));
+
+        RetentionMagic.setCoalescePersists(true);
+        try
+        {
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    RetentionMagic.persist(new FirstFragment(), prefs);
+                    RetentionMagic.persist(new SecondFragment(), prefs);
+
+                    // both fragments share the same editor, nothing is written before the main looper gets to the next message
+                    assertEquals(1, prefs.mEdits);
+                    assertFalse(prefs.contains("first.mValue"));
+                }
+            });
+            // the flush has been posted to the main looper, wait for it
+            InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+
+            assertEquals(1, prefs.getInt("first.mValue", 0));
+            assertEquals(2, prefs.getInt("second.mValue", 0));
+
+            // nothing has changed, so nothing is written
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    RetentionMagic.persist(new FirstFragment(), prefs);
+                }
+            });
+            InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+
+            assertEquals(1, prefs.mEdits);
+        }
+        finally
+        {
+            RetentionMagic.setCoalescePersists(false);
+        }
+    }
+
+
+    @Test
+    public void writesBehindUntilTheUiIsHidden() throws Exception
+    {
+        File file = File.createTempFile("coordinator", ".prefs");
+        file.delete();
+        final SharedPreferences prefs = new MappedPreferences(file);
+        final PersistenceCoordinator coordinator = new PersistenceCoordinator();
+        Context context = InstrumentationRegistry.getTargetContext();
+
+        coordinator.setWriteBehind(context, 60000);
+        try
+        {
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    DiffingEditor editor = coordinator.edit(prefs);
+                    editor.putInt("key", 1);
+                    coordinator.release(prefs, editor);
+                }
+            });
+            InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+
+            // the quiet period has not passed yet
+            assertFalse(prefs.contains("key"));
+
+            coordinator.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+            assertTrue(prefs.contains("key"));
+        }
+        finally
+        {
+            coordinator.setWriteBehind(context, 0);
+        }
+    }
+
+
+    @Test
+    public void flushesBeforeInit() throws Exception
+    {
+        File file = File.createTempFile("coordinator", ".prefs");
+        file.delete();
+        final SharedPreferences prefs = new MappedPreferences(file);
+        Context context = InstrumentationRegistry.getTargetContext();
+
+        RetentionMagic.setWriteBehind(context, 60000);
+        try
+        {
+            final FirstFragment fragment = new FirstFragment();
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    FirstFragment first = new FirstFragment();
+                    first.mValue = 5;
+                    RetentionMagic.persist(first, prefs);
+                    RetentionMagic.init(fragment, prefs);
+                }
+            });
+
+            assertEquals(5, fragment.mValue);
+        }
+        finally
+        {
+            RetentionMagic.setWriteBehind(context, 0);
+        }
+    }
+
+
+    public static class FirstFragment extends android.support.v4.app.Fragment
+    {
+        private final static String TAG = "first";
+
+        @Retain(permanent = true)
+        int mValue = 1;
+    }
+
+
+    public static class SecondFragment extends android.support.v4.app.Fragment
+    {
+        private final static String TAG = "second";
+
+        @Retain(permanent = true)
+        int mValue = 2;
+    }
+
+
+    /**
+     * {@link SharedPreferences} that count the calls to {@link #edit()}.
+     */
+    private static class CountingPreferences implements SharedPreferences
+    {
+        private final SharedPreferences mDelegate;
+
+        volatile int mEdits;
+
+
+        CountingPreferences(SharedPreferences delegate)
+        {
+            mDelegate = delegate;
+        }
+
+
+        @Override
+        public Editor edit()
+        {
+            ++mEdits;
+            return mDelegate.edit();
+        }
+
+
+        @Override
+        public Map<String, ?> getAll()
+        {
+            return mDelegate.getAll();
+        }
+
+
+        @Override
+        public String getString(String key, String defValue)
+        {
+            return mDelegate.getString(key, defValue);
+        }
+
+
+        @Override
+        public Set<String> getStringSet(String key, Set<String> defValues)
+        {
+            return mDelegate.getStringSet(key, defValues);
+        }
+
+
+        @Override
+        public int getInt(String key, int defValue)
+        {
+            return mDelegate.getInt(key, defValue);
+        }
+
+
+        @Override
+        public long getLong(String key, long defValue)
+        {
+            return mDelegate.getLong(key, defValue);
+        }
+
+
+        @Override
+        public float getFloat(String key, float defValue)
+        {
+            return mDelegate.getFloat(key, defValue);
+        }
+
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue)
+        {
+            return mDelegate.getBoolean(key, defValue);
+        }
+
+
+        @Override
+        public boolean contains(String key)
+        {
+            return mDelegate.contains(key);
+        }
+
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener)
+        {
+            mDelegate.registerOnSharedPreferenceChangeListener(listener);
+        }
+
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener)
+        {
+            mDelegate.unregisterOnSharedPreferenceChangeListener(listener);
+        }
+    }
+}
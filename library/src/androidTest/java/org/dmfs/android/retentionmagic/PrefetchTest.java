@@ -0,0 +1,116 @@
+package org.dmfs.android.retentionmagic;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Verifies that {@link RetentionMagic#getPreferences(Context)} waits for a pending prefetch and doesn't wait for a prefetch that has never been scheduled.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+@RunWith(AndroidJUnit4.class)
+public class PrefetchTest
+{
+    @Test(timeout = 10000)
+    public void waitsOnlyIfNotLoaded() throws Exception
+    {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        SharedPreferences expected = context.getSharedPreferences(context.getPackageName() + ".sharedPrefences", 0);
+
+        // an executor that runs the task when we release it
+        final CountDownLatch release = new CountDownLatch(1);
+        Executor executor = new Executor()
+        {
+            @Override
+            public void execute(final Runnable command)
+            {
+                new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            release.await();
+                        }
+                        catch (InterruptedException e)
+                        {
+                            return;
+                        }
+                        command.run();
+                    }
+                }.start();
+            }
+        };
+
+        RetentionMagic.prefetchAsync(executor, context);
+
+        final SharedPreferences[] result = new SharedPreferences[1];
+        Thread thread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                result[0] = RetentionMagic.getPreferences(context);
+            }
+        };
+        thread.start();
+
+        // the thread can't get the preferences before we release the prefetch
+        while (thread.getState() != Thread.State.WAITING)
+        {
+            Thread.yield();
+        }
+        release.countDown();
+        thread.join();
+
+        assertSame(expected, result[0]);
+
+        // loading has finished, so there is no need to wait anymore
+        long waited = RetentionMagic.getPrefetchWaitTime();
+        assertSame(expected, RetentionMagic.getPreferences(context));
+        assertEquals(waited, RetentionMagic.getPrefetchWaitTime());
+    }
+
+
+    @Test(timeout = 10000)
+    public void doesNotWaitIfRejected() throws Exception
+    {
+        Context context = InstrumentationRegistry.getTargetContext();
+        SharedPreferences expected = context.getSharedPreferences(context.getPackageName() + ".sharedPrefences", 0);
+
+        try
+        {
+            RetentionMagic.prefetchAsync(new Executor()
+            {
+                @Override
+                public void execute(Runnable command)
+                {
+                    throw new RejectedExecutionException();
+                }
+            }, context);
+            fail("the rejection has not been reported");
+        }
+        catch (RejectedExecutionException e)
+        {
+            // expected
+        }
+
+        // this would block forever if the rejected prefetch had been published
+        assertSame(expected, RetentionMagic.getPreferences(context));
+    }
+}
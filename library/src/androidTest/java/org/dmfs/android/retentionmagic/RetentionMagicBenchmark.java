@@ -0,0 +1,368 @@
+package org.dmfs.android.retentionmagic;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import java.lang.reflect.Method;
+
+import org.dmfs.android.retentionmagic.annotations.Parameter;
+import org.dmfs.android.retentionmagic.annotations.Retain;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import dalvik.system.PathClassLoader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+
+/**
+ * Benchmarks of the retention paths. Run on a device and check logcat for the results.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+@RunWith(AndroidJUnit4.class)
+public class RetentionMagicBenchmark
+{
+    private final static String TAG = "RetentionMagicBenchmark";
+
+    private final static int WARMUP = 200;
+
+    private final static int ITERATIONS = 2000;
+
+
+    /**
+     * Compares the cost of initializing a fragment with 30 parameters without a cached {@link RetentionPlan}, with a cached {@link RetentionPlan} and with
+     * the generated {@link ParameterInjector}.
+     */
+    @Test
+    public void attachWithParameters() throws Exception
+    {
+        Bundle arguments = new Bundle();
+        for (int i = 0; i < 30; ++i)
+        {
+            arguments.putInt("p" + i, i);
+        }
+        ParameterFragment fragment = new ParameterFragment();
+        RetentionPlan plan = RetentionPlan.build(ParameterFragment.class);
+        ParameterInjector<Object> injector = Binders.getParameterInjector(ParameterFragment.class);
+        assertNotNull(injector);
+
+        for (int i = 0; i < WARMUP; ++i)
+        {
+            RetentionPlan.build(ParameterFragment.class).inject(fragment, arguments);
+            plan.inject(fragment, arguments);
+            injector.inject(fragment, arguments);
+        }
+
+        // that's what each attach used to cost: scan the fields, read the annotations and resolve the helpers
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i)
+        {
+            RetentionPlan.build(ParameterFragment.class).inject(fragment, arguments);
+        }
+        long uncached = (System.nanoTime() - start) / ITERATIONS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i)
+        {
+            plan.inject(fragment, arguments);
+        }
+        long cached = (System.nanoTime() - start) / ITERATIONS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i)
+        {
+            injector.inject(fragment, arguments);
+        }
+        long generated = (System.nanoTime() - start) / ITERATIONS;
+
+        Log.i(TAG, String.format("attach with 30 parameters: uncached %d ns, cached plan %d ns, generated %d ns", uncached, cached, generated));
+        assertEquals(29, fragment.p29);
+    }
+
+
+    /**
+     * Compares reflective field access via the {@link RetentionPlan} with direct field access via the generated {@link StateBinder}.
+     */
+    @Test
+    public void storeAndRestoreReflectiveVsGenerated() throws Exception
+    {
+        MixedFragment fragment = new MixedFragment();
+        fragment.mString = "string";
+        fragment.mIntArray = new int[] { 1, 2, 3 };
+        Bundle state = new Bundle();
+        RetentionPlan plan = RetentionPlan.build(MixedFragment.class);
+        StateBinder<Object> binder = Binders.getStateBinder(MixedFragment.class);
+        assertNotNull(binder);
+
+        for (int i = 0; i < WARMUP; ++i)
+        {
+            plan.store(fragment, state);
+            plan.restore(fragment, state);
+            binder.store(fragment, state);
+            binder.restore(fragment, state);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i)
+        {
+            plan.store(fragment, state);
+            plan.restore(fragment, state);
+        }
+        long reflective = (System.nanoTime() - start) / ITERATIONS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i)
+        {
+            binder.store(fragment, state);
+            binder.restore(fragment, state);
+        }
+        long generated = (System.nanoTime() - start) / ITERATIONS;
+
+        Log.i(TAG, String.format("store and restore of 16 fields: reflective %d ns, generated %d ns", reflective, generated));
+        assertEquals("string", fragment.mString);
+    }
+
+
+    /**
+     * Compares the type-grouped loops of the {@link RetentionPlan} with dispatching each field through its {@link PersistenceHelper}, which is what the
+     * plan used to do. Both run warm, so the JIT has compiled the loops.
+     */
+    @Test
+    public void storeAndRestoreGroupedVsPerField() throws Exception
+    {
+        MixedFragment fragment = new MixedFragment();
+        fragment.mString = "string";
+        fragment.mIntArray = new int[] { 1, 2, 3 };
+        Bundle state = new Bundle();
+        RetentionPlan plan = RetentionPlan.build(MixedFragment.class);
+
+        for (int i = 0; i < WARMUP * 10; ++i)
+        {
+            plan.store(fragment, state);
+            plan.restore(fragment, state);
+            storePerField(plan, fragment, state);
+            restorePerField(plan, fragment, state);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i)
+        {
+            storePerField(plan, fragment, state);
+            restorePerField(plan, fragment, state);
+        }
+        long perField = (System.nanoTime() - start) / ITERATIONS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i)
+        {
+            plan.store(fragment, state);
+            plan.restore(fragment, state);
+        }
+        long grouped = (System.nanoTime() - start) / ITERATIONS;
+
+        Log.i(TAG, String.format("store and restore of 16 mixed fields: per field dispatch %d ns, grouped %d ns", perField, grouped));
+        assertEquals("string", fragment.mString);
+    }
+
+
+    private static void storePerField(RetentionPlan plan, Object instance, Bundle state) throws IllegalAccessException
+    {
+        for (int i = 0; i < plan.fields.length; ++i)
+        {
+            plan.helpers[i].storeInBundle(plan.fields[i], instance, plan.keys[i], state);
+        }
+    }
+
+
+    private static void restorePerField(RetentionPlan plan, Object instance, Bundle state) throws IllegalAccessException
+    {
+        for (int i = 0; i < plan.fields.length; ++i)
+        {
+            plan.helpers[i].restoreFromBundle(plan.fields[i], instance, plan.keys[i], state);
+        }
+    }
+
+
+    /**
+     * Measures the cold start cost of {@link RetentionMagic}, i.e. loading and initializing the class and resolving the helpers of an <code>int</code> and a
+     * {@link String} field. Each iteration loads the classes with a fresh class loader, so nothing has been loaded or initialized before.
+     */
+    @Test
+    public void classInit() throws Exception
+    {
+        String codePath = InstrumentationRegistry.getContext().getPackageCodePath();
+        ClassLoader parent = Context.class.getClassLoader();
+        int iterations = 20;
+        long total = 0;
+
+        for (int i = 0; i < iterations; ++i)
+        {
+            // creating the class loader opens the dex file, that's not what we want to measure
+            ClassLoader classLoader = new PathClassLoader(codePath, parent);
+
+            long start = System.nanoTime();
+            Class.forName(RetentionMagic.class.getName(), true, classLoader);
+            Method getHelper = Class.forName(PersistenceHelpers.class.getName(), true, classLoader).getDeclaredMethod("getHelper", Class.class);
+            getHelper.setAccessible(true);
+            Object intHelper = getHelper.invoke(null, int.class);
+            Object stringHelper = getHelper.invoke(null, String.class);
+            total += System.nanoTime() - start;
+
+            assertNotNull(intHelper);
+            assertNotNull(stringHelper);
+        }
+
+        Log.i(TAG, String.format("class init and resolution of 2 helpers: %d ns", total / iterations));
+    }
+
+
+    public static class ParameterFragment extends android.support.v4.app.Fragment
+    {
+        @Parameter
+        int p0;
+
+        @Parameter
+        int p1;
+
+        @Parameter
+        int p2;
+
+        @Parameter
+        int p3;
+
+        @Parameter
+        int p4;
+
+        @Parameter
+        int p5;
+
+        @Parameter
+        int p6;
+
+        @Parameter
+        int p7;
+
+        @Parameter
+        int p8;
+
+        @Parameter
+        int p9;
+
+        @Parameter
+        int p10;
+
+        @Parameter
+        int p11;
+
+        @Parameter
+        int p12;
+
+        @Parameter
+        int p13;
+
+        @Parameter
+        int p14;
+
+        @Parameter
+        int p15;
+
+        @Parameter
+        int p16;
+
+        @Parameter
+        int p17;
+
+        @Parameter
+        int p18;
+
+        @Parameter
+        int p19;
+
+        @Parameter
+        int p20;
+
+        @Parameter
+        int p21;
+
+        @Parameter
+        int p22;
+
+        @Parameter
+        int p23;
+
+        @Parameter
+        int p24;
+
+        @Parameter
+        int p25;
+
+        @Parameter
+        int p26;
+
+        @Parameter
+        int p27;
+
+        @Parameter
+        int p28;
+
+        @Parameter
+        int p29;
+    }
+
+
+    public static class MixedFragment extends android.support.v4.app.Fragment
+    {
+        @Retain
+        int mInt1;
+
+        @Retain
+        int mInt2;
+
+        @Retain
+        int mInt3;
+
+        @Retain
+        long mLong1;
+
+        @Retain
+        long mLong2;
+
+        @Retain
+        boolean mBoolean1;
+
+        @Retain
+        boolean mBoolean2;
+
+        @Retain
+        float mFloat;
+
+        @Retain
+        double mDouble;
+
+        @Retain
+        short mShort;
+
+        @Retain
+        char mChar;
+
+        @Retain
+        String mString;
+
+        @Retain
+        String mString2;
+
+        @Retain
+        int[] mIntArray;
+
+        @Retain
+        Bundle mBundle;
+
+        @Retain
+        CharSequence mCharSequence;
+    }
+}
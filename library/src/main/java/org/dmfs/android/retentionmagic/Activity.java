@@ -38,7 +38,7 @@ public class Activity extends android.app.Activity
 	{
 		super.onCreate(savedInstanceState);
 
-		mPrefs = getSharedPreferences(getPackageName() + ".sharedPrefences", 0);
+		mPrefs = RetentionMagic.getPreferences(this);
 
 		RetentionMagic.init(this, getIntent().getExtras());
 
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+
+/**
+ * Looks up the binders generated by the RetentionMagic annotation processor.
+ * <p>
+ * Each class is looked up only once. Classes without a generated binder are remembered as well, so the reflective fallback doesn't pay for a failing
+ * {@link Class#forName(String)} on every call.
+ * </p>
+ * <p>
+ * The classes and the binders are held weakly, so they don't keep any class loader alive. The binders are kept alive by the static <code>INSTANCE</code>
+ * fields of their classes.
+ * </p>
+ * <p>
+ * The binders may be looked up from any thread.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class Binders
+{
+	/**
+	 * The suffix of the names of generated {@link StateBinder}s.
+	 */
+	final static String STATE_BINDER_SUFFIX = "_StateBinder";
+
+	/**
+	 * The suffix of the names of generated {@link PreferencesBinder}s.
+	 */
+	final static String PREFERENCES_BINDER_SUFFIX = "_PreferencesBinder";
+
+	/**
+	 * The suffix of the names of generated {@link ParameterInjector}s.
+	 */
+	final static String PARAMETER_INJECTOR_SUFFIX = "_ParameterInjector";
+
+	/**
+	 * Marker for classes that don't have a generated binder.
+	 */
+	private final static Object NO_BINDER = new Object();
+
+	/**
+	 * Maps classes to a {@link WeakReference} to their {@link StateBinder} or to {@link #NO_BINDER}.
+	 * <p>
+	 * Lookups never block.
+	 * </p>
+	 */
+	private final static WeakClassCache<Object> STATE_BINDERS = new WeakClassCache<Object>();
+
+	/**
+	 * Maps classes to a {@link WeakReference} to their {@link PreferencesBinder} or to {@link #NO_BINDER}.
+	 * <p>
+	 * Lookups never block.
+	 * </p>
+	 */
+	private final static WeakClassCache<Object> PREFERENCES_BINDERS = new WeakClassCache<Object>();
+
+	/**
+	 * Maps classes to a {@link WeakReference} to their {@link ParameterInjector} or to {@link #NO_BINDER}.
+	 * <p>
+	 * Lookups never block.
+	 * </p>
+	 */
+	private final static WeakClassCache<Object> PARAMETER_INJECTORS = new WeakClassCache<Object>();
+
+
+	/**
+	 * Don't allow instances.
+	 */
+	private Binders()
+	{
+	}
+
+
+	/**
+	 * Returns the generated {@link StateBinder} of the given class.
+	 * 
+	 * @param classInstance
+	 *            The class to get the {@link StateBinder} for.
+	 * @return The {@link StateBinder} or <code>null</code> if no binder has been generated for this class.
+	 */
+	@SuppressWarnings("unchecked")
+	static StateBinder<Object> getStateBinder(final Class<?> classInstance)
+	{
+		return (StateBinder<Object>) getBinder(classInstance, STATE_BINDER_SUFFIX, STATE_BINDERS);
+	}
+
+
+	/**
+	 * Returns the generated {@link PreferencesBinder} of the given class.
+	 * 
+	 * @param classInstance
+	 *            The class to get the {@link PreferencesBinder} for.
+	 * @return The {@link PreferencesBinder} or <code>null</code> if no binder has been generated for this class.
+	 */
+	@SuppressWarnings("unchecked")
+	static PreferencesBinder<Object> getPreferencesBinder(final Class<?> classInstance)
+	{
+		return (PreferencesBinder<Object>) getBinder(classInstance, PREFERENCES_BINDER_SUFFIX, PREFERENCES_BINDERS);
+	}
+
+
+	/**
+	 * Returns the generated {@link ParameterInjector} of the given class.
+	 * 
+	 * @param classInstance
+	 *            The class to get the {@link ParameterInjector} for.
+	 * @return The {@link ParameterInjector} or <code>null</code> if no injector has been generated for this class.
+	 */
+	@SuppressWarnings("unchecked")
+	static ParameterInjector<Object> getParameterInjector(final Class<?> classInstance)
+	{
+		return (ParameterInjector<Object>) getBinder(classInstance, PARAMETER_INJECTOR_SUFFIX, PARAMETER_INJECTORS);
+	}
+
+
+	/**
+	 * Loads the {@link RetentionIndex}es the annotation processor has generated and registered in <code>META-INF/services</code>, one per module that
+	 * sets the processor option <code>retentionmagic.index</code>.
+	 * 
+	 * @return The {@link RetentionIndex}es, may be empty.
+	 */
+	static List<RetentionIndex> getIndices()
+	{
+		List<RetentionIndex> result = new ArrayList<RetentionIndex>();
+		Iterator<RetentionIndex> indices = ServiceLoader.load(RetentionIndex.class, Binders.class.getClassLoader()).iterator();
+		try
+		{
+			while (indices.hasNext())
+			{
+				try
+				{
+					result.add(indices.next());
+				}
+				catch (ServiceConfigurationError e)
+				{
+					// the index has probably been removed or renamed by ProGuard, try the others
+					e.printStackTrace();
+				}
+			}
+		}
+		catch (ServiceConfigurationError e)
+		{
+			// a registration can't be read, use the indices we have
+			e.printStackTrace();
+		}
+		return result;
+	}
+
+
+	private static Object getBinder(final Class<?> classInstance, final String suffix, final WeakClassCache<Object> cache)
+	{
+		Object binder = cache.get(classInstance);
+		if (binder == null)
+		{
+			// load the binder without holding a lock, in the worst case two threads load the same binder
+			binder = cache.putIfAbsent(classInstance, loadBinder(classInstance, suffix));
+		}
+		// the binder is alive as long as the class loader of the class, so the reference has not been cleared
+		return binder == NO_BINDER ? null : ((WeakReference<?>) binder).get();
+	}
+
+
+	private static Object loadBinder(final Class<?> classInstance, final String suffix)
+	{
+		try
+		{
+			Class<?> binderClass = Class.forName(classInstance.getName() + suffix, true, classInstance.getClassLoader());
+			return new WeakReference<Object>(binderClass.getField("INSTANCE").get(null));
+		}
+		catch (ClassNotFoundException e)
+		{
+			// no binder has been generated for this class
+			return NO_BINDER;
+		}
+		catch (NoSuchFieldException e)
+		{
+			e.printStackTrace();
+			return NO_BINDER;
+		}
+		catch (IllegalAccessException e)
+		{
+			e.printStackTrace();
+			return NO_BINDER;
+		}
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic;
+
+import java.lang.reflect.Field;
+
+import android.os.Bundle;
+
+
+/**
+ * A {@link PersistenceHelper} that delegates to a {@link RetentionCodec}.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class CodecHelper extends PersistenceHelper
+{
+	private final RetentionCodec<Object> mCodec;
+
+
+	@SuppressWarnings("unchecked")
+	CodecHelper(final RetentionCodec<?> codec)
+	{
+		mCodec = (RetentionCodec<Object>) codec;
+	}
+
+
+	@Override
+	public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+	{
+		mCodec.put(bundle, key, field.get(instance));
+	}
+
+
+	@Override
+	public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+	{
+		field.set(instance, mCodec.get(bundle, key));
+	}
+}
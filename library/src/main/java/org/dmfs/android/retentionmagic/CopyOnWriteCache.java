@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * A thread safe cache for values that are written rarely and read often, like the {@link RetentionPlan}s of classes.
+ * <p>
+ * Reads never block. The cache publishes an immutable map via a volatile field, each write copies the current map, modifies the copy and publishes it. That
+ * makes writes expensive, but writes happen only once per key.
+ * </p>
+ * 
+ * @param <K>
+ *            The type of the keys.
+ * @param <V>
+ *            The type of the values.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class CopyOnWriteCache<K, V>
+{
+	/**
+	 * The current map. It's never modified after it has been published.
+	 */
+	private volatile Map<K, V> mMap = Collections.emptyMap();
+
+
+	/**
+	 * Returns the value of the given key. This never blocks.
+	 * 
+	 * @param key
+	 *            The key.
+	 * @return The value or <code>null</code> if the cache doesn't contain the key.
+	 */
+	V get(final K key)
+	{
+		return mMap.get(key);
+	}
+
+
+	/**
+	 * Returns whether this cache is empty. This never blocks.
+	 */
+	boolean isEmpty()
+	{
+		return mMap.isEmpty();
+	}
+
+
+	/**
+	 * Adds the given value unless the cache already contains a value for the key.
+	 * 
+	 * @param key
+	 *            The key.
+	 * @param value
+	 *            The value.
+	 * @return The value in the cache, which is the given value or the value that has been added by another thread before.
+	 */
+	synchronized V putIfAbsent(final K key, final V value)
+	{
+		V current = mMap.get(key);
+		if (current != null)
+		{
+			return current;
+		}
+		put(key, value);
+		return value;
+	}
+
+
+	/**
+	 * Adds or replaces the value of the given key.
+	 * 
+	 * @param key
+	 *            The key.
+	 * @param value
+	 *            The value.
+	 */
+	synchronized void put(final K key, final V value)
+	{
+		Map<K, V> map = new HashMap<K, V>(mMap);
+		map.put(key, value);
+		mMap = map;
+	}
+
+
+	/**
+	 * Removes the value of the given key.
+	 * 
+	 * @param key
+	 *            The key.
+	 */
+	synchronized void remove(final K key)
+	{
+		if (mMap.containsKey(key))
+		{
+			Map<K, V> map = new HashMap<K, V>(mMap);
+			map.remove(key);
+			mMap = map;
+		}
+	}
+}
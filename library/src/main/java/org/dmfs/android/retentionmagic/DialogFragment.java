@@ -48,7 +48,7 @@ public class DialogFragment extends android.app.DialogFragment
 		super.onCreate(savedInstanceState);
 
 		Activity activity = getActivity();
-		mPrefs = activity.getSharedPreferences(activity.getPackageName() + ".sharedPrefences", 0);
+		mPrefs = RetentionMagic.getPreferences(activity);
 
 		if (savedInstanceState == null)
 		{
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import android.content.SharedPreferences;
+
+
+/**
+ * A {@link SharedPreferences.Editor} that forwards only the values that differ from the values in the {@link SharedPreferences}. The actual editor is created
+ * on the first change, so if nothing has changed {@link #hasChanges()} returns <code>false</code> and there is nothing to write.
+ * <p>
+ * The values are compared with the current content of the preferences rather than with the values that have been loaded into an instance, so values that
+ * have been written by another instance using the same keys are overwritten as before.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class DiffingEditor implements SharedPreferences.Editor
+{
+	private SharedPreferences mPrefs;
+
+	private SharedPreferences.Editor mEditor;
+
+	/**
+	 * The keys that have been forwarded to {@link #mEditor}. Later changes of these keys are always forwarded, even if the new value matches the stored value.
+	 * It's created on the first change.
+	 */
+	private Set<String> mChangedKeys;
+
+	private boolean mCleared;
+
+
+	DiffingEditor(final SharedPreferences prefs)
+	{
+		mPrefs = prefs;
+	}
+
+
+	/**
+	 * Resets this editor, so it can be reused for the given {@link SharedPreferences}. Any changes that have not been written are dropped.
+	 * 
+	 * @param prefs
+	 *            The {@link SharedPreferences} to edit or <code>null</code> if the editor is not in use.
+	 */
+	void reset(final SharedPreferences prefs)
+	{
+		mPrefs = prefs;
+		mEditor = null;
+		mCleared = false;
+		if (mChangedKeys != null)
+		{
+			mChangedKeys.clear();
+		}
+	}
+
+
+	/**
+	 * Returns whether any value has been changed.
+	 */
+	boolean hasChanges()
+	{
+		return mEditor != null;
+	}
+
+
+	@Override
+	public SharedPreferences.Editor putString(final String key, final String value)
+	{
+		try
+		{
+			if (!isChanged(key) && (value == null ? !mPrefs.contains(key) : value.equals(mPrefs.getString(key, null))))
+			{
+				return this;
+			}
+		}
+		catch (ClassCastException e)
+		{
+			// the type has changed
+		}
+		editor(key).putString(key, value);
+		return this;
+	}
+
+
+	@Override
+	public SharedPreferences.Editor putStringSet(final String key, final Set<String> values)
+	{
+		try
+		{
+			if (!isChanged(key) && (values == null ? !mPrefs.contains(key) : values.equals(mPrefs.getStringSet(key, null))))
+			{
+				return this;
+			}
+		}
+		catch (ClassCastException e)
+		{
+			// the type has changed
+		}
+		editor(key).putStringSet(key, values);
+		return this;
+	}
+
+
+	@Override
+	public SharedPreferences.Editor putInt(final String key, final int value)
+	{
+		try
+		{
+			if (!isChanged(key) && mPrefs.contains(key) && mPrefs.getInt(key, value) == value)
+			{
+				return this;
+			}
+		}
+		catch (ClassCastException e)
+		{
+			// the type has changed
+		}
+		editor(key).putInt(key, value);
+		return this;
+	}
+
+
+	@Override
+	public SharedPreferences.Editor putLong(final String key, final long value)
+	{
+		try
+		{
+			if (!isChanged(key) && mPrefs.contains(key) && mPrefs.getLong(key, value) == value)
+			{
+				return this;
+			}
+		}
+		catch (ClassCastException e)
+		{
+			// the type has changed
+		}
+		editor(key).putLong(key, value);
+		return this;
+	}
+
+
+	@Override
+	public SharedPreferences.Editor putFloat(final String key, final float value)
+	{
+		try
+		{
+			if (!isChanged(key) && mPrefs.contains(key) && Float.compare(mPrefs.getFloat(key, value), value) == 0)
+			{
+				return this;
+			}
+		}
+		catch (ClassCastException e)
+		{
+			// the type has changed
+		}
+		editor(key).putFloat(key, value);
+		return this;
+	}
+
+
+	@Override
+	public SharedPreferences.Editor putBoolean(final String key, final boolean value)
+	{
+		try
+		{
+			if (!isChanged(key) && mPrefs.contains(key) && mPrefs.getBoolean(key, value) == value)
+			{
+				return this;
+			}
+		}
+		catch (ClassCastException e)
+		{
+			// the type has changed
+		}
+		editor(key).putBoolean(key, value);
+		return this;
+	}
+
+
+	@Override
+	public SharedPreferences.Editor remove(final String key)
+	{
+		if (isChanged(key) || mPrefs.contains(key))
+		{
+			editor(key).remove(key);
+		}
+		return this;
+	}
+
+
+	@Override
+	public SharedPreferences.Editor clear()
+	{
+		editor().clear();
+		mCleared = true;
+		return this;
+	}
+
+
+	@Override
+	public boolean commit()
+	{
+		return mEditor == null || mEditor.commit();
+	}
+
+
+	@Override
+	public void apply()
+	{
+		if (mEditor != null)
+		{
+			mEditor.apply();
+		}
+	}
+
+
+	/**
+	 * Returns whether the given key has been changed by this editor.
+	 */
+	private boolean isChanged(final String key)
+	{
+		return mCleared || mChangedKeys != null && mChangedKeys.contains(key);
+	}
+
+
+	private SharedPreferences.Editor editor(final String key)
+	{
+		if (mChangedKeys == null)
+		{
+			mChangedKeys = new HashSet<String>();
+		}
+		mChangedKeys.add(key);
+		return editor();
+	}
+
+
+	private SharedPreferences.Editor editor()
+	{
+		if (mEditor == null)
+		{
+			mEditor = mPrefs.edit();
+		}
+		return mEditor;
+	}
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import android.os.Bundle;
+import android.os.Parcelable;
+
+
+/**
+ * A set of fields grouped by their type. Each group is stored and restored by a loop of its own with typed {@link Bundle} and {@link Field} calls.
+ * <p>
+ * Dispatching every field through {@link PersistenceHelper} results in a megamorphic call site (there are more than 20 implementations) that the JIT can't
+ * inline. The loops of the most common types are monomorphic, so they can be inlined and primitive values are never boxed. All other fields still go through
+ * their {@link PersistenceHelper}.
+ * </p>
+ * <p>
+ * Fields are grouped by their {@link PersistenceHelper}, not by their type, so fields with a {@link RetentionCodec} are never taken for one of the common
+ * types.
+ * </p>
+ * <p>
+ * Fields that share their key with another field are not grouped. They all go through their {@link PersistenceHelper}s in declaration order, so the last
+ * one still wins, regardless of the types of the fields.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class FieldGroups
+{
+	private final Field[] booleanFields;
+	private final String[] booleanKeys;
+	private final Field[] intFields;
+	private final String[] intKeys;
+	private final Field[] longFields;
+	private final String[] longKeys;
+	private final Field[] floatFields;
+	private final String[] floatKeys;
+	private final Field[] doubleFields;
+	private final String[] doubleKeys;
+	private final Field[] stringFields;
+	private final String[] stringKeys;
+	private final Field[] parcelableFields;
+	private final String[] parcelableKeys;
+
+	/**
+	 * The fields of all other types, these are stored and restored by their {@link PersistenceHelper}s.
+	 */
+	private final Field[] otherFields;
+	private final PersistenceHelper[] otherHelpers;
+	private final String[] otherKeys;
+
+
+	/**
+	 * Groups the given fields.
+	 * 
+	 * @param fields
+	 *            The fields, made accessible.
+	 * @param helpers
+	 *            The {@link PersistenceHelper}s of the fields, as returned by {@link PersistenceHelpers#getHelper(Class)}.
+	 * @param keys
+	 *            The keys of the fields.
+	 */
+	FieldGroups(final List<Field> fields, final List<PersistenceHelper> helpers, final List<String> keys)
+	{
+		Group booleans = new Group();
+		Group ints = new Group();
+		Group longs = new Group();
+		Group floats = new Group();
+		Group doubles = new Group();
+		Group strings = new Group();
+		Group parcelables = new Group();
+		Group others = new Group();
+
+		// the helpers of the fields have been resolved already, don't create helpers for types that no field uses
+		PersistenceHelper booleanHelper = PersistenceHelpers.getCachedHelper(boolean.class);
+		PersistenceHelper intHelper = PersistenceHelpers.getCachedHelper(int.class);
+		PersistenceHelper longHelper = PersistenceHelpers.getCachedHelper(long.class);
+		PersistenceHelper floatHelper = PersistenceHelpers.getCachedHelper(float.class);
+		PersistenceHelper doubleHelper = PersistenceHelpers.getCachedHelper(double.class);
+		PersistenceHelper stringHelper = PersistenceHelpers.getCachedHelper(String.class);
+		PersistenceHelper parcelableHelper = PersistenceHelpers.getCachedHelper(Parcelable.class);
+
+		// grouping would change the order of fields that use the same key, so these are all handled by their helpers
+		Set<String> allKeys = new HashSet<String>();
+		Set<String> duplicateKeys = new HashSet<String>();
+		for (int i = 0, count = keys.size(); i < count; ++i)
+		{
+			if (!allKeys.add(keys.get(i)))
+			{
+				duplicateKeys.add(keys.get(i));
+			}
+		}
+
+		for (int i = 0, count = fields.size(); i < count; ++i)
+		{
+			PersistenceHelper helper = helpers.get(i);
+			Group group;
+			if (helper == null)
+			{
+				// can't happen, the plan doesn't contain fields without a helper
+				throw new IllegalArgumentException("no helper for field " + fields.get(i).getName());
+			}
+			else if (duplicateKeys.contains(keys.get(i)))
+			{
+				group = others;
+				others.helpers.add(helper);
+			}
+			else if (helper == booleanHelper)
+			{
+				group = booleans;
+			}
+			else if (helper == intHelper)
+			{
+				group = ints;
+			}
+			else if (helper == longHelper)
+			{
+				group = longs;
+			}
+			else if (helper == floatHelper)
+			{
+				group = floats;
+			}
+			else if (helper == doubleHelper)
+			{
+				group = doubles;
+			}
+			else if (helper == stringHelper)
+			{
+				group = strings;
+			}
+			else if (helper == parcelableHelper)
+			{
+				group = parcelables;
+			}
+			else
+			{
+				group = others;
+				others.helpers.add(helper);
+			}
+			group.fields.add(fields.get(i));
+			group.keys.add(keys.get(i));
+		}
+
+		booleanFields = booleans.fields();
+		booleanKeys = booleans.keys();
+		intFields = ints.fields();
+		intKeys = ints.keys();
+		longFields = longs.fields();
+		longKeys = longs.keys();
+		floatFields = floats.fields();
+		floatKeys = floats.keys();
+		doubleFields = doubles.fields();
+		doubleKeys = doubles.keys();
+		stringFields = strings.fields();
+		stringKeys = strings.keys();
+		parcelableFields = parcelables.fields();
+		parcelableKeys = parcelables.keys();
+		otherFields = others.fields();
+		otherHelpers = others.helpers.toArray(new PersistenceHelper[others.helpers.size()]);
+		otherKeys = others.keys();
+	}
+
+
+	/**
+	 * Store all fields of the given instance in a {@link Bundle}.
+	 * 
+	 * @param instance
+	 *            The instance.
+	 * @param bundle
+	 *            The {@link Bundle} to store the values in.
+	 * @throws IllegalAccessException
+	 */
+	void store(final Object instance, final Bundle bundle) throws IllegalAccessException
+	{
+		Field[] fields = booleanFields;
+		String[] keys = booleanKeys;
+		for (int i = 0, count = fields.length; i < count; ++i)
+		{
+			bundle.putBoolean(keys[i], fields[i].getBoolean(instance));
+		}
+
+		fields = intFields;
+		keys = intKeys;
+		for (int i = 0, count = fields.length; i < count; ++i)
+		{
+			bundle.putInt(keys[i], fields[i].getInt(instance));
+		}
+
+		fields = longFields;
+		keys = longKeys;
+		for (int i = 0, count = fields.length; i < count; ++i)
+		{
+			bundle.putLong(keys[i], fields[i].getLong(instance));
+		}
+
+		fields = floatFields;
+		keys = floatKeys;
+		for (int i = 0, count = fields.length; i < count; ++i)
+		{
+			bundle.putFloat(keys[i], fields[i].getFloat(instance));
+		}
+
+		fields = doubleFields;
+		keys = doubleKeys;
+		for (int i = 0, count = fields.length; i < count; ++i)
+		{
+			bundle.putDouble(keys[i], fields[i].getDouble(instance));
+		}
+
+		fields = stringFields;
+		keys = stringKeys;
+		for (int i = 0, count = fields.length; i < count; ++i)
+		{
+			bundle.putString(keys[i], (String) fields[i].get(instance));
+		}
+
+		fields = parcelableFields;
+		keys = parcelableKeys;
+		for (int i = 0, count = fields.length; i < count; ++i)
+		{
+			bundle.putParcelable(keys[i], (Parcelable) fields[i].get(instance));
+		}
+
+		fields = otherFields;
+		keys = otherKeys;
+		final PersistenceHelper[] helpers = otherHelpers;
+		for (int i = 0, count = fields.length; i < count; ++i)
+		{
+			helpers[i].storeInBundle(fields[i], instance, keys[i], bundle);
+		}
+	}
+
+
+	/**
+	 * Restore all fields of the given instance from a {@link Bundle}.
+	 * 
+	 * @param instance
+	 *            The instance.
+	 * @param bundle
+	 *            The {@link Bundle} to restore the values from.
+	 * @throws IllegalAccessException
+	 */
+	void restore(final Object instance, final Bundle bundle) throws IllegalAccessException
+	{
+		Field[] fields = booleanFields;
+		String[] keys = booleanKeys;
+		for (int i = 0, count = fields.length; i < count; ++i)
+		{
+			fields[i].setBoolean(instance, bundle.getBoolean(keys[i]));
+		}
+
+		fields = intFields;
+		keys = intKeys;
+		for (int i = 0, count = fields.length; i < count; ++i)
+		{
+			fields[i].setInt(instance, bundle.getInt(keys[i]));
+		}
+
+		fields = longFields;
+		keys = longKeys;
+		for (int i = 0, count = fields.length; i < count; ++i)
+		{
+			fields[i].setLong(instance, bundle.getLong(keys[i]));
+		}
+
+		fields = floatFields;
+		keys = floatKeys;
+		for (int i = 0, count = fields.length; i < count; ++i)
+		{
+			fields[i].setFloat(instance, bundle.getFloat(keys[i]));
+		}
+
+		fields = doubleFields;
+		keys = doubleKeys;
+		for (int i = 0, count = fields.length; i < count; ++i)
+		{
+			fields[i].setDouble(instance, bundle.getDouble(keys[i]));
+		}
+
+		fields = stringFields;
+		keys = stringKeys;
+		for (int i = 0, count = fields.length; i < count; ++i)
+		{
+			fields[i].set(instance, bundle.getString(keys[i]));
+		}
+
+		fields = parcelableFields;
+		keys = parcelableKeys;
+		for (int i = 0, count = fields.length; i < count; ++i)
+		{
+			fields[i].set(instance, bundle.getParcelable(keys[i]));
+		}
+
+		fields = otherFields;
+		keys = otherKeys;
+		final PersistenceHelper[] helpers = otherHelpers;
+		for (int i = 0, count = fields.length; i < count; ++i)
+		{
+			helpers[i].restoreFromBundle(fields[i], instance, keys[i], bundle);
+		}
+	}
+
+
+	/**
+	 * The fields and keys of a group while the groups are built.
+	 */
+	private final static class Group
+	{
+		final List<Field> fields = new ArrayList<Field>();
+		final List<PersistenceHelper> helpers = new ArrayList<PersistenceHelper>();
+		final List<String> keys = new ArrayList<String>();
+
+
+		Field[] fields()
+		{
+			return fields.toArray(new Field[fields.size()]);
+		}
+
+
+		String[] keys()
+		{
+			return keys.toArray(new String[keys.size()]);
+		}
+	}
+}
@@ -47,7 +47,7 @@ public class Fragment extends android.app.Fragment
 		super.onCreate(savedInstanceState);
 
 		Activity activity = getActivity();
-		mPrefs = activity.getSharedPreferences(activity.getPackageName() + ".sharedPrefences", 0);
+		mPrefs = RetentionMagic.getPreferences(activity);
 
 		if (savedInstanceState == null)
 		{
@@ -38,7 +38,7 @@ public class FragmentActivity extends android.support.v4.app.FragmentActivity
 	{
 		super.onCreate(savedInstanceState);
 
-		mPrefs = getSharedPreferences(getPackageName() + ".sharedPrefences", 0);
+		mPrefs = RetentionMagic.getPreferences(this);
 
 		RetentionMagic.init(this, getIntent().getExtras());
 
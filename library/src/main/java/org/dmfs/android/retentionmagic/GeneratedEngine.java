@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic;
+
+import android.content.SharedPreferences;
+import android.os.Bundle;
+
+
+/**
+ * A {@link RetentionEngine} that uses the binders generated by the annotation processor. The binders access the fields directly, so no reflection is
+ * involved. The processor generates all binders of each class it processes, even if they have nothing to do. If a class doesn't have the respective binder,
+ * i.e. it has not been processed or it's not supported by the processor, the call is delegated to a fallback engine.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class GeneratedEngine implements RetentionEngine
+{
+	private final RetentionEngine mFallback;
+
+
+	/**
+	 * Create a {@link GeneratedEngine}.
+	 * 
+	 * @param fallback
+	 *            The {@link RetentionEngine} to use for classes without a generated binder.
+	 */
+	GeneratedEngine(final RetentionEngine fallback)
+	{
+		mFallback = fallback;
+	}
+
+
+	@Override
+	public void store(final Class<?> classInstance, final Object instance, final Bundle instanceState) throws IllegalAccessException
+	{
+		StateBinder<Object> binder = Binders.getStateBinder(classInstance);
+		if (binder == null)
+		{
+			mFallback.store(classInstance, instance, instanceState);
+			return;
+		}
+		binder.store(instance, instanceState);
+	}
+
+
+	@Override
+	public void restore(final Class<?> classInstance, final Object instance, final Bundle instanceState) throws IllegalAccessException
+	{
+		StateBinder<Object> binder = Binders.getStateBinder(classInstance);
+		if (binder == null)
+		{
+			mFallback.restore(classInstance, instance, instanceState);
+			return;
+		}
+		binder.restore(instance, instanceState);
+	}
+
+
+	@Override
+	public void inject(final Class<?> classInstance, final Object instance, final Bundle arguments) throws IllegalAccessException
+	{
+		ParameterInjector<Object> injector = Binders.getParameterInjector(classInstance);
+		if (injector == null)
+		{
+			mFallback.inject(classInstance, instance, arguments);
+			return;
+		}
+		injector.inject(instance, arguments);
+	}
+
+
+	@Override
+	public void init(final Class<?> classInstance, final Object instance, final SharedPreferences prefs) throws IllegalAccessException
+	{
+		PreferencesBinder<Object> binder = Binders.getPreferencesBinder(classInstance);
+		if (binder == null)
+		{
+			mFallback.init(classInstance, instance, prefs);
+			return;
+		}
+		binder.init(instance, prefs);
+	}
+
+
+	@Override
+	public void persist(final Class<?> classInstance, final Object instance, final SharedPreferences.Editor editor) throws IllegalAccessException
+	{
+		PreferencesBinder<Object> binder = Binders.getPreferencesBinder(classInstance);
+		if (binder == null)
+		{
+			mFallback.persist(classInstance, instance, editor);
+			return;
+		}
+		binder.persist(instance, editor);
+	}
+
+
+	@Override
+	public void prewarm(final Class<?> classInstance)
+	{
+		// load all binders, the fallback engine is needed only if one of them is missing, i.e. if the processor didn't support the class
+		boolean complete = Binders.getStateBinder(classInstance) != null;
+		complete &= Binders.getPreferencesBinder(classInstance) != null;
+		complete &= Binders.getParameterInjector(classInstance) != null;
+		if (!complete)
+		{
+			mFallback.prewarm(classInstance);
+		}
+	}
+}
@@ -0,0 +1,817 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import android.content.SharedPreferences;
+
+
+/**
+ * {@link SharedPreferences} that are stored in a memory-mapped binary log.
+ * <p>
+ * Regular {@link SharedPreferences} rewrite the entire XML file on every commit and parse the entire file on first access. This implementation appends each
+ * change to a log file that is mapped into memory. Values of a fixed size (<code>int</code>, <code>long</code>, <code>float</code> and
+ * <code>boolean</code>) are updated in place if the type doesn't change, so persisting an <code>int</code> is a write of four bytes to memory. The log is
+ * compacted when it's full.
+ * </p>
+ * <p>
+ * The kernel writes the mapped pages to the file, so the data survives if the process is killed. {@link Editor#apply()} doesn't wait for the data to hit the
+ * disk, {@link Editor#commit()} does. Each record is written before its type byte, so a record that has been interrupted is ignored when the file is loaded.
+ * </p>
+ * <p>
+ * Listeners are notified on the thread that commits the changes.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class MappedPreferences implements SharedPreferences
+{
+	/**
+	 * The magic number at the beginning of the file ("RMKV").
+	 */
+	private final static int MAGIC = 0x524d4b56;
+
+	private final static int VERSION = 1;
+
+	private final static int HEADER_SIZE = 8;
+
+	private final static int INITIAL_CAPACITY = 16 * 1024;
+
+	/**
+	 * Marks the end of the log. The unused part of the file is filled with zeros, so this is the type of the first unused byte.
+	 */
+	private final static byte TYPE_END = 0;
+	private final static byte TYPE_INT = 1;
+	private final static byte TYPE_LONG = 2;
+	private final static byte TYPE_FLOAT = 3;
+	private final static byte TYPE_BOOLEAN = 4;
+	private final static byte TYPE_STRING = 5;
+	private final static byte TYPE_STRING_SET = 6;
+	private final static byte TYPE_REMOVE = 7;
+
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Marks a removed key in an {@link Editor}.
+	 */
+	private final static Object REMOVED = new Object();
+
+	private final File mFile;
+
+	/**
+	 * The current values.
+	 */
+	private final Map<String, Object> mValues = new HashMap<String, Object>();
+
+	/**
+	 * The offsets of the fixed-size values in the file, so they can be updated in place.
+	 */
+	private final Map<String, Integer> mOffsets = new HashMap<String, Integer>();
+
+	private final Map<OnSharedPreferenceChangeListener, Object> mListeners = new WeakHashMap<OnSharedPreferenceChangeListener, Object>();
+
+	private RandomAccessFile mRandomAccessFile;
+
+	private MappedByteBuffer mBuffer;
+
+	/**
+	 * The position of the end of the log.
+	 */
+	private int mPosition;
+
+
+	/**
+	 * Opens the given file. The file is created if it doesn't exist. Files that are not a valid log are replaced.
+	 * 
+	 * @param file
+	 *            The file.
+	 * @throws IOException
+	 *             if the file can't be opened.
+	 */
+	public MappedPreferences(final File file) throws IOException
+	{
+		mFile = file;
+		map(INITIAL_CAPACITY);
+		if (mBuffer.getInt(0) == MAGIC && mBuffer.getInt(4) == VERSION)
+		{
+			load();
+		}
+		else
+		{
+			compact(INITIAL_CAPACITY);
+		}
+	}
+
+
+	@Override
+	public synchronized Map<String, ?> getAll()
+	{
+		return new HashMap<String, Object>(mValues);
+	}
+
+
+	@Override
+	public synchronized String getString(final String key, final String defValue)
+	{
+		String value = (String) mValues.get(key);
+		return value == null ? defValue : value;
+	}
+
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public synchronized Set<String> getStringSet(final String key, final Set<String> defValues)
+	{
+		Set<String> value = (Set<String>) mValues.get(key);
+		return value == null ? defValues : value;
+	}
+
+
+	@Override
+	public synchronized int getInt(final String key, final int defValue)
+	{
+		Integer value = (Integer) mValues.get(key);
+		return value == null ? defValue : value;
+	}
+
+
+	@Override
+	public synchronized long getLong(final String key, final long defValue)
+	{
+		Long value = (Long) mValues.get(key);
+		return value == null ? defValue : value;
+	}
+
+
+	@Override
+	public synchronized float getFloat(final String key, final float defValue)
+	{
+		Float value = (Float) mValues.get(key);
+		return value == null ? defValue : value;
+	}
+
+
+	@Override
+	public synchronized boolean getBoolean(final String key, final boolean defValue)
+	{
+		Boolean value = (Boolean) mValues.get(key);
+		return value == null ? defValue : value;
+	}
+
+
+	@Override
+	public synchronized boolean contains(final String key)
+	{
+		return mValues.containsKey(key);
+	}
+
+
+	@Override
+	public Editor edit()
+	{
+		return new MappedEditor();
+	}
+
+
+	@Override
+	public synchronized void registerOnSharedPreferenceChangeListener(final OnSharedPreferenceChangeListener listener)
+	{
+		mListeners.put(listener, this);
+	}
+
+
+	@Override
+	public synchronized void unregisterOnSharedPreferenceChangeListener(final OnSharedPreferenceChangeListener listener)
+	{
+		mListeners.remove(listener);
+	}
+
+
+	/**
+	 * Returns the number of bytes in use by the log, including the header. Exposed for tests.
+	 */
+	synchronized int logSize()
+	{
+		return mPosition;
+	}
+
+
+	/**
+	 * Applies the changes of an {@link Editor}.
+	 * 
+	 * @return <code>true</code> if the changes have been written successfully.
+	 */
+	private boolean write(final Map<String, Object> changes, final boolean clear, final boolean sync)
+	{
+		List<String> changedKeys;
+		Set<OnSharedPreferenceChangeListener> listeners;
+		boolean success = true;
+		synchronized (this)
+		{
+			changedKeys = new ArrayList<String>(changes.size());
+			try
+			{
+				if (clear)
+				{
+					mValues.clear();
+					mOffsets.clear();
+				}
+
+				for (Map.Entry<String, Object> change : changes.entrySet())
+				{
+					String key = change.getKey();
+					Object value = change.getValue();
+					if (value == REMOVED)
+					{
+						if (mValues.remove(key) != null && !clear)
+						{
+							mOffsets.remove(key);
+							append(key, null);
+							changedKeys.add(key);
+						}
+					}
+					else
+					{
+						Object old = mValues.put(key, value);
+						if (!value.equals(old))
+						{
+							if (!clear && (old == null || old.getClass() != value.getClass() || !update(key, value)))
+							{
+								append(key, value);
+							}
+							changedKeys.add(key);
+						}
+					}
+				}
+
+				if (clear)
+				{
+					compact(INITIAL_CAPACITY);
+				}
+
+				if (sync)
+				{
+					mBuffer.force();
+				}
+			}
+			catch (IOException e)
+			{
+				// the values have been changed in memory anyway, that's what SharedPreferences do as well
+				e.printStackTrace();
+				success = false;
+			}
+			listeners = mListeners.isEmpty() ? Collections.<OnSharedPreferenceChangeListener> emptySet()
+				: new HashSet<OnSharedPreferenceChangeListener>(mListeners.keySet());
+		}
+
+		for (OnSharedPreferenceChangeListener listener : listeners)
+		{
+			for (String key : changedKeys)
+			{
+				listener.onSharedPreferenceChanged(this, key);
+			}
+		}
+		return success;
+	}
+
+
+	/**
+	 * Updates a fixed-size value in place.
+	 * 
+	 * @return <code>false</code> if the value can't be updated in place.
+	 */
+	private boolean update(final String key, final Object value)
+	{
+		Integer offset = mOffsets.get(key);
+		if (offset == null)
+		{
+			return false;
+		}
+
+		if (value instanceof Integer)
+		{
+			mBuffer.putInt(offset, (Integer) value);
+		}
+		else if (value instanceof Long)
+		{
+			mBuffer.putLong(offset, (Long) value);
+		}
+		else if (value instanceof Float)
+		{
+			mBuffer.putFloat(offset, (Float) value);
+		}
+		else if (value instanceof Boolean)
+		{
+			mBuffer.put(offset, (byte) ((Boolean) value ? 1 : 0));
+		}
+		else
+		{
+			return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Appends a record to the log. Compacts the log if it's full.
+	 * 
+	 * @param key
+	 *            The key.
+	 * @param value
+	 *            The value or <code>null</code> to append a removal.
+	 */
+	private void append(final String key, final Object value) throws IOException
+	{
+		byte[] keyBytes = key.getBytes(UTF8);
+		if (keyBytes.length > 0xffff)
+		{
+			throw new IllegalArgumentException("key too long");
+		}
+
+		// the record and the end marker
+		int size = 1 + 2 + keyBytes.length + valueSize(value) + 1;
+		if (mPosition + size > mBuffer.capacity())
+		{
+			// the log contains the new value already, so there is nothing to append afterwards
+			compact(size);
+			return;
+		}
+
+		ByteBuffer out = mBuffer.duplicate();
+		out.position(mPosition + 1);
+		out.putShort((short) keyBytes.length);
+		out.put(keyBytes);
+		int valueOffset = out.position();
+		byte type = writeValue(out, value);
+		// terminate the log before the record becomes valid
+		out.put(TYPE_END);
+		mBuffer.put(mPosition, type);
+
+		if (isFixedSize(type))
+		{
+			mOffsets.put(key, valueOffset);
+		}
+		else
+		{
+			mOffsets.remove(key);
+		}
+		mPosition = out.position() - 1;
+	}
+
+
+	/**
+	 * Loads all records from the log.
+	 */
+	@SuppressWarnings("unchecked")
+	private void load()
+	{
+		ByteBuffer in = mBuffer.duplicate();
+		in.position(HEADER_SIZE);
+		int position = HEADER_SIZE;
+		try
+		{
+			byte type;
+			while ((type = in.get()) != TYPE_END)
+			{
+				byte[] keyBytes = new byte[in.getShort() & 0xffff];
+				in.get(keyBytes);
+				String key = new String(keyBytes, UTF8);
+				int valueOffset = in.position();
+				Object value;
+				switch (type)
+				{
+					case TYPE_INT:
+						value = in.getInt();
+						break;
+					case TYPE_LONG:
+						value = in.getLong();
+						break;
+					case TYPE_FLOAT:
+						value = in.getFloat();
+						break;
+					case TYPE_BOOLEAN:
+						value = in.get() != 0;
+						break;
+					case TYPE_STRING:
+						value = readString(in);
+						break;
+					case TYPE_STRING_SET:
+						int count = in.getInt();
+						Set<String> set = new HashSet<String>(count * 2);
+						for (int i = 0; i < count; ++i)
+						{
+							set.add(readString(in));
+						}
+						value = Collections.unmodifiableSet(set);
+						break;
+					case TYPE_REMOVE:
+						value = null;
+						break;
+					default:
+						throw new IllegalArgumentException("unknown record type " + type);
+				}
+
+				if (value == null)
+				{
+					mValues.remove(key);
+					mOffsets.remove(key);
+				}
+				else
+				{
+					mValues.put(key, value);
+					if (isFixedSize(type))
+					{
+						mOffsets.put(key, valueOffset);
+					}
+					else
+					{
+						mOffsets.remove(key);
+					}
+				}
+				position = in.position();
+			}
+		}
+		catch (BufferUnderflowException e)
+		{
+			// the last record is incomplete, ignore it
+		}
+		catch (IllegalArgumentException e)
+		{
+			// the log is corrupt, keep what we have so far
+		}
+		// don't rely on the rest of the file, write an end marker
+		mPosition = position;
+		mBuffer.put(mPosition, TYPE_END);
+	}
+
+
+	/**
+	 * Writes all current values to a new log and replaces the file with it.
+	 * 
+	 * @param reserve
+	 *            The number of bytes that should be available after compaction.
+	 */
+	private void compact(final int reserve) throws IOException
+	{
+		int size = HEADER_SIZE + 1;
+		for (Map.Entry<String, Object> entry : mValues.entrySet())
+		{
+			size += 1 + 2 + entry.getKey().getBytes(UTF8).length + valueSize(entry.getValue());
+		}
+
+		int capacity = INITIAL_CAPACITY;
+		while (capacity < (size + reserve) * 2 && capacity > 0)
+		{
+			capacity <<= 1;
+		}
+		if (capacity <= 0)
+		{
+			throw new IOException("log too large");
+		}
+
+		File tmpFile = new File(mFile.getPath() + ".tmp");
+		RandomAccessFile randomAccessFile = new RandomAccessFile(tmpFile, "rw");
+		try
+		{
+			randomAccessFile.setLength(0);
+			MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			Map<String, Integer> offsets = new HashMap<String, Integer>();
+			for (Map.Entry<String, Object> entry : mValues.entrySet())
+			{
+				byte[] keyBytes = entry.getKey().getBytes(UTF8);
+				int start = buffer.position();
+				buffer.put(TYPE_END);
+				buffer.putShort((short) keyBytes.length);
+				buffer.put(keyBytes);
+				int valueOffset = buffer.position();
+				byte type = writeValue(buffer, entry.getValue());
+				buffer.put(start, type);
+				if (isFixedSize(type))
+				{
+					offsets.put(entry.getKey(), valueOffset);
+				}
+			}
+			buffer.put(TYPE_END);
+			buffer.force();
+
+			if (!tmpFile.renameTo(mFile))
+			{
+				throw new IOException("can't replace " + mFile);
+			}
+
+			mOffsets.clear();
+			mOffsets.putAll(offsets);
+			mPosition = buffer.position() - 1;
+			mBuffer = buffer;
+			closeFile();
+			mRandomAccessFile = randomAccessFile;
+			randomAccessFile = null;
+		}
+		catch (BufferOverflowException e)
+		{
+			throw new IOException("log too large");
+		}
+		finally
+		{
+			if (randomAccessFile != null)
+			{
+				randomAccessFile.close();
+				tmpFile.delete();
+			}
+		}
+	}
+
+
+	/**
+	 * Maps the file with at least the given capacity.
+	 */
+	private void map(final int minCapacity) throws IOException
+	{
+		RandomAccessFile randomAccessFile = new RandomAccessFile(mFile, "rw");
+		try
+		{
+			long length = randomAccessFile.length();
+			if (length > Integer.MAX_VALUE)
+			{
+				throw new IOException("file too large");
+			}
+			mBuffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Math.max(minCapacity, (int) length));
+			mRandomAccessFile = randomAccessFile;
+		}
+		catch (IOException e)
+		{
+			randomAccessFile.close();
+			throw e;
+		}
+	}
+
+
+	/**
+	 * Closes the file. Values that have been committed are on disk, this instance must not be used anymore.
+	 */
+	synchronized void close()
+	{
+		closeFile();
+		mRandomAccessFile = null;
+	}
+
+
+	private void closeFile()
+	{
+		if (mRandomAccessFile != null)
+		{
+			try
+			{
+				mRandomAccessFile.close();
+			}
+			catch (IOException e)
+			{
+				// ignore, the buffer remains valid until it's garbage collected
+			}
+		}
+	}
+
+
+	private static boolean isFixedSize(final byte type)
+	{
+		return type == TYPE_INT || type == TYPE_LONG || type == TYPE_FLOAT || type == TYPE_BOOLEAN;
+	}
+
+
+	/**
+	 * Returns the number of bytes the given value takes in the log.
+	 */
+	@SuppressWarnings("unchecked")
+	private static int valueSize(final Object value)
+	{
+		if (value == null)
+		{
+			return 0;
+		}
+		if (value instanceof Integer || value instanceof Float)
+		{
+			return 4;
+		}
+		if (value instanceof Long)
+		{
+			return 8;
+		}
+		if (value instanceof Boolean)
+		{
+			return 1;
+		}
+		if (value instanceof String)
+		{
+			return 4 + ((String) value).getBytes(UTF8).length;
+		}
+		int size = 4;
+		for (String string : (Set<String>) value)
+		{
+			size += 4 + (string == null ? 0 : string.getBytes(UTF8).length);
+		}
+		return size;
+	}
+
+
+	/**
+	 * Writes the given value and returns its type.
+	 */
+	@SuppressWarnings("unchecked")
+	private static byte writeValue(final ByteBuffer out, final Object value)
+	{
+		if (value == null)
+		{
+			return TYPE_REMOVE;
+		}
+		if (value instanceof Integer)
+		{
+			out.putInt((Integer) value);
+			return TYPE_INT;
+		}
+		if (value instanceof Long)
+		{
+			out.putLong((Long) value);
+			return TYPE_LONG;
+		}
+		if (value instanceof Float)
+		{
+			out.putFloat((Float) value);
+			return TYPE_FLOAT;
+		}
+		if (value instanceof Boolean)
+		{
+			out.put((byte) ((Boolean) value ? 1 : 0));
+			return TYPE_BOOLEAN;
+		}
+		if (value instanceof String)
+		{
+			writeString(out, (String) value);
+			return TYPE_STRING;
+		}
+		Set<String> set = (Set<String>) value;
+		out.putInt(set.size());
+		for (String string : set)
+		{
+			writeString(out, string);
+		}
+		return TYPE_STRING_SET;
+	}
+
+
+	private static void writeString(final ByteBuffer out, final String string)
+	{
+		if (string == null)
+		{
+			out.putInt(-1);
+			return;
+		}
+		byte[] bytes = string.getBytes(UTF8);
+		out.putInt(bytes.length);
+		out.put(bytes);
+	}
+
+
+	private static String readString(final ByteBuffer in)
+	{
+		int length = in.getInt();
+		if (length < 0)
+		{
+			return null;
+		}
+		if (length > in.remaining())
+		{
+			throw new BufferUnderflowException();
+		}
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+
+	/**
+	 * An {@link Editor} that collects the changes until they are committed.
+	 */
+	private final class MappedEditor implements Editor
+	{
+		private final Map<String, Object> mChanges = new HashMap<String, Object>();
+
+		private boolean mClear;
+
+
+		@Override
+		public synchronized Editor putString(final String key, final String value)
+		{
+			mChanges.put(key, value == null ? REMOVED : value);
+			return this;
+		}
+
+
+		@Override
+		public synchronized Editor putStringSet(final String key, final Set<String> values)
+		{
+			mChanges.put(key, values == null ? REMOVED : Collections.unmodifiableSet(new HashSet<String>(values)));
+			return this;
+		}
+
+
+		@Override
+		public synchronized Editor putInt(final String key, final int value)
+		{
+			mChanges.put(key, value);
+			return this;
+		}
+
+
+		@Override
+		public synchronized Editor putLong(final String key, final long value)
+		{
+			mChanges.put(key, value);
+			return this;
+		}
+
+
+		@Override
+		public synchronized Editor putFloat(final String key, final float value)
+		{
+			mChanges.put(key, value);
+			return this;
+		}
+
+
+		@Override
+		public synchronized Editor putBoolean(final String key, final boolean value)
+		{
+			mChanges.put(key, value);
+			return this;
+		}
+
+
+		@Override
+		public synchronized Editor remove(final String key)
+		{
+			mChanges.put(key, REMOVED);
+			return this;
+		}
+
+
+		@Override
+		public synchronized Editor clear()
+		{
+			mClear = true;
+			return this;
+		}
+
+
+		@Override
+		public synchronized boolean commit()
+		{
+			boolean result = write(mChanges, mClear, true /* sync */);
+			mChanges.clear();
+			mClear = false;
+			return result;
+		}
+
+
+		@Override
+		public synchronized void apply()
+		{
+			write(mChanges, mClear, false /* async */);
+			mChanges.clear();
+			mClear = false;
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+
+/**
+ * A {@link PersistenceBackend} that stores the permanent fields in {@link MappedPreferences}. Enable it in <code>Application.onCreate()</code>:
+ * 
+ * <pre>
+ * RetentionMagic.setPersistenceBackend(new MappedPreferencesBackend());
+ * </pre>
+ * <p>
+ * When a file is opened for the first time the values of the {@link SharedPreferences} with the same name are copied, so switching the backend doesn't lose
+ * any state. The values are copied to a temporary file that replaces the actual file only after all values have been written, so the migration is repeated
+ * if the process dies in between. If a file can't be opened the backend falls back to regular {@link SharedPreferences}.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class MappedPreferencesBackend implements PersistenceBackend
+{
+	private final static String TAG = "MappedPreferencesBackend";
+
+	/**
+	 * The name of the directory that contains the files.
+	 */
+	private final static String DIRECTORY = "retentionmagic";
+
+	/**
+	 * The open preferences by file. They are shared by all backend instances, a file must not be mapped twice.
+	 */
+	private final static Map<File, SharedPreferences> PREFERENCES = new HashMap<File, SharedPreferences>();
+
+
+	@Override
+	public SharedPreferences getPreferences(final Context context, final String name)
+	{
+		File file = new File(context.getDir(DIRECTORY, 0), name);
+		synchronized (PREFERENCES)
+		{
+			SharedPreferences prefs = PREFERENCES.get(file);
+			if (prefs == null)
+			{
+				prefs = open(context, name, file);
+				PREFERENCES.put(file, prefs);
+			}
+			return prefs;
+		}
+	}
+
+
+	private static SharedPreferences open(final Context context, final String name, final File file)
+	{
+		try
+		{
+			if (!file.exists())
+			{
+				migrate(context.getSharedPreferences(name, 0), file);
+			}
+			return new MappedPreferences(file);
+		}
+		catch (IOException e)
+		{
+			Log.w(TAG, "can't open " + file + ", falling back to SharedPreferences", e);
+			return context.getSharedPreferences(name, 0);
+		}
+	}
+
+
+	/**
+	 * Copies all values from the given {@link SharedPreferences} to a new file. The file is created only after all values have been written.
+	 */
+	private static void migrate(final SharedPreferences from, final File file) throws IOException
+	{
+		File migrationFile = new File(file.getPath() + ".migration");
+		// a left-over of an interrupted migration may be incomplete, start over
+		migrationFile.delete();
+		MappedPreferences prefs = new MappedPreferences(migrationFile);
+		try
+		{
+			if (!migrate(from, prefs))
+			{
+				throw new IOException("can't migrate to " + migrationFile);
+			}
+		}
+		finally
+		{
+			prefs.close();
+		}
+
+		if (!migrationFile.renameTo(file))
+		{
+			migrationFile.delete();
+			throw new IOException("can't replace " + file);
+		}
+	}
+
+
+	/**
+	 * Copies all values from one {@link SharedPreferences} instance to another.
+	 * 
+	 * @return <code>true</code> if the values have been written.
+	 */
+	@SuppressWarnings("unchecked")
+	private static boolean migrate(final SharedPreferences from, final SharedPreferences to)
+	{
+		Map<String, ?> values = from.getAll();
+		if (values.isEmpty())
+		{
+			return true;
+		}
+
+		SharedPreferences.Editor editor = to.edit();
+		for (Map.Entry<String, ?> entry : values.entrySet())
+		{
+			Object value = entry.getValue();
+			if (value instanceof Integer)
+			{
+				editor.putInt(entry.getKey(), (Integer) value);
+			}
+			else if (value instanceof Long)
+			{
+				editor.putLong(entry.getKey(), (Long) value);
+			}
+			else if (value instanceof Float)
+			{
+				editor.putFloat(entry.getKey(), (Float) value);
+			}
+			else if (value instanceof Boolean)
+			{
+				editor.putBoolean(entry.getKey(), (Boolean) value);
+			}
+			else if (value instanceof String)
+			{
+				editor.putString(entry.getKey(), (String) value);
+			}
+			else if (value instanceof Set)
+			{
+				editor.putStringSet(entry.getKey(), (Set<String>) value);
+			}
+		}
+		return editor.commit();
+	}
+}
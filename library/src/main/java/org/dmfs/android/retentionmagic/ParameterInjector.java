@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic;
+
+import android.os.Bundle;
+
+
+/**
+ * Initializes the fields annotated with <code>@Parameter</code> and <code>@ParameterArrayList</code> of a specific class from an extras or arguments
+ * {@link Bundle} without reflection.
+ * <p>
+ * Implementations are generated at compile time by the RetentionMagic annotation processor. For a class <code>com.example.DemoFragment</code> the processor
+ * generates <code>com.example.DemoFragment_ParameterInjector</code>, which is picked up by {@link RetentionMagic} automatically. You should not implement
+ * this interface yourself.
+ * </p>
+ * <p>
+ * The processor also generates a <code>com.example.DemoFragment_Args</code> class with a builder to create the matching arguments, like so:
+ * </p>
+ * 
+ * <pre>
+ * Bundle args = DemoFragment_Args.builder().value(&quot;some value&quot;).count(2).toBundle();
+ * </pre>
+ * 
+ * @param <T>
+ *            The type of the class that contains the parameter fields.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public interface ParameterInjector<T>
+{
+	/**
+	 * Initialize all parameter fields of the given instance from the given {@link Bundle}.
+	 * 
+	 * @param instance
+	 *            The instance to initialize.
+	 * @param arguments
+	 *            The extras or arguments {@link Bundle}.
+	 */
+	public void inject(T instance, Bundle arguments);
+}
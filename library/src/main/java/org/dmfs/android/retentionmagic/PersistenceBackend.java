@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+
+/**
+ * The storage of permanent fields. The base classes of RetentionMagic get their {@link SharedPreferences} from the backend set with
+ * {@link RetentionMagic#setPersistenceBackend(PersistenceBackend)}.
+ * <p>
+ * By default the permanent fields are stored in regular {@link SharedPreferences}, see {@link RetentionMagic#SHARED_PREFERENCES_BACKEND}. For apps with
+ * many permanent fields {@link MappedPreferencesBackend} is a faster alternative.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public interface PersistenceBackend
+{
+	/**
+	 * Returns the {@link SharedPreferences} with the given name. Implementations should return the same instance for the same name, so all screens share the
+	 * same state.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @param name
+	 *            The name of the preferences.
+	 * @return The {@link SharedPreferences}.
+	 */
+	public SharedPreferences getPreferences(Context context, String name);
+}
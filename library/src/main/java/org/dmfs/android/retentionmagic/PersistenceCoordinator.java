@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+import android.os.Handler;
+import android.os.Looper;
+
+
+/**
+ * Coalesces the writes of {@link RetentionMagic#persist(android.app.Activity, SharedPreferences)} and its siblings.
+ * <p>
+ * When an Activity stops, the Activity and each of its Fragments persist their fields one after another in the same message of the main looper. If
+ * coalescing is enabled, the values are collected in one editor per {@link SharedPreferences} instance instead of writing each of them on its own. The
+ * editors are written when the main looper gets to the next message, so the whole burst results in one transaction per file. Coalescing is disabled by
+ * default, because values that are pending when the process is killed are lost.
+ * </p>
+ * <p>
+ * The values are taken from the fields right away, only the write is deferred. Calls from other threads are written immediately. Editors that are written
+ * immediately are reused by the next call on the same thread, so persisting unchanged values doesn't allocate.
+ * </p>
+ * <p>
+ * In write-behind mode, which works regardless of coalescing, the write is deferred until no values have been persisted for a quiet period, so frequent calls are cheap. Pending values are written
+ * when the app is no longer visible ({@link ComponentCallbacks2#TRIM_MEMORY_UI_HIDDEN}), when memory gets low and before the same {@link SharedPreferences}
+ * are read by {@link RetentionMagic#init(android.app.Activity, SharedPreferences)} and its siblings.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class PersistenceCoordinator implements Runnable, ComponentCallbacks2
+{
+	/**
+	 * The pending editors by {@link SharedPreferences} instance.
+	 */
+	private final Map<SharedPreferences, DiffingEditor> mPending = new HashMap<SharedPreferences, DiffingEditor>();
+
+	/**
+	 * The unused editor of each thread, if any. An editor is taken from here while it's in use, so nested calls get their own editor.
+	 */
+	private final ThreadLocal<DiffingEditor> mUnusedEditors = new ThreadLocal<DiffingEditor>();
+
+	/**
+	 * The {@link Handler} of the main looper. It's created on first use.
+	 */
+	private Handler mHandler;
+
+	private boolean mScheduled;
+
+	private volatile boolean mEnabled;
+
+	/**
+	 * The quiet period in milliseconds, <code>0</code> if write-behind is disabled.
+	 */
+	private long mQuietPeriod;
+
+	/**
+	 * The {@link Context} this has been registered with for memory callbacks or <code>null</code>.
+	 */
+	private Context mCallbacksContext;
+
+
+	/**
+	 * Enables or disables coalescing. It's disabled by default. Disabling it doesn't write pending editors, call {@link #flush()} for that.
+	 */
+	void setEnabled(final boolean enabled)
+	{
+		mEnabled = enabled;
+	}
+
+
+	/**
+	 * Enables or disables write-behind.
+	 * 
+	 * @param context
+	 *            The application {@link Context}, used to receive memory callbacks.
+	 * @param quietPeriod
+	 *            The time in milliseconds without any persisted values before the values are written, <code>0</code> to disable write-behind.
+	 */
+	void setWriteBehind(final Context context, final long quietPeriod)
+	{
+		synchronized (this)
+		{
+			mQuietPeriod = quietPeriod;
+			if (quietPeriod > 0 && mCallbacksContext == null)
+			{
+				mCallbacksContext = context;
+				context.registerComponentCallbacks(this);
+			}
+			else if (quietPeriod == 0 && mCallbacksContext != null)
+			{
+				mCallbacksContext.unregisterComponentCallbacks(this);
+				mCallbacksContext = null;
+			}
+		}
+
+		if (quietPeriod == 0)
+		{
+			flush();
+		}
+	}
+
+
+	/**
+	 * Returns an editor for the given {@link SharedPreferences}. Return it with {@link #release(SharedPreferences, DiffingEditor)} after all values have been
+	 * written.
+	 * 
+	 * @param prefs
+	 *            The {@link SharedPreferences}.
+	 * @return A {@link DiffingEditor}.
+	 */
+	synchronized DiffingEditor edit(final SharedPreferences prefs)
+	{
+		Looper mainLooper = Looper.getMainLooper();
+		if (!mEnabled && mQuietPeriod == 0 || mainLooper == null || mainLooper.getThread() != Thread.currentThread())
+		{
+			DiffingEditor editor = mUnusedEditors.get();
+			if (editor == null)
+			{
+				return new DiffingEditor(prefs);
+			}
+			mUnusedEditors.set(null);
+			editor.reset(prefs);
+			return editor;
+		}
+
+		DiffingEditor editor = mPending.get(prefs);
+		if (editor == null)
+		{
+			editor = new DiffingEditor(prefs);
+			mPending.put(prefs, editor);
+		}
+
+		if (mHandler == null)
+		{
+			mHandler = new Handler(mainLooper);
+		}
+
+		if (mQuietPeriod > 0)
+		{
+			// restart the quiet period
+			mHandler.removeCallbacks(this);
+			mHandler.postDelayed(this, mQuietPeriod);
+			mScheduled = true;
+		}
+		else if (!mScheduled)
+		{
+			mHandler.post(this);
+			mScheduled = true;
+		}
+		return editor;
+	}
+
+
+	/**
+	 * Releases an editor returned by {@link #edit(SharedPreferences)}. Editors that are not pending are written immediately.
+	 * 
+	 * @param prefs
+	 *            The {@link SharedPreferences} the editor belongs to.
+	 * @param editor
+	 *            The {@link DiffingEditor}.
+	 */
+	synchronized void release(final SharedPreferences prefs, final DiffingEditor editor)
+	{
+		if (mPending.get(prefs) != editor)
+		{
+			write(editor);
+			// the editor is not referenced anywhere else, reuse it for the next call on this thread
+			editor.reset(null);
+			mUnusedEditors.set(editor);
+		}
+	}
+
+
+	/**
+	 * Writes all pending editors now.
+	 */
+	void flush()
+	{
+		List<DiffingEditor> editors;
+		synchronized (this)
+		{
+			if (mPending.isEmpty())
+			{
+				return;
+			}
+			editors = new ArrayList<DiffingEditor>(mPending.values());
+			mPending.clear();
+		}
+
+		for (DiffingEditor editor : editors)
+		{
+			write(editor);
+		}
+	}
+
+
+	/**
+	 * Writes the pending editor of the given {@link SharedPreferences} now, if any.
+	 */
+	void flush(final SharedPreferences prefs)
+	{
+		DiffingEditor editor;
+		synchronized (this)
+		{
+			if (mPending.isEmpty() || (editor = mPending.remove(prefs)) == null)
+			{
+				return;
+			}
+		}
+		write(editor);
+	}
+
+
+	@Override
+	public void run()
+	{
+		synchronized (this)
+		{
+			mScheduled = false;
+		}
+		flush();
+	}
+
+
+	@Override
+	public void onTrimMemory(final int level)
+	{
+		if (level >= TRIM_MEMORY_UI_HIDDEN)
+		{
+			// the app is going to the background, write everything while we can
+			flush();
+		}
+	}
+
+
+	@Override
+	public void onLowMemory()
+	{
+		flush();
+	}
+
+
+	@Override
+	public void onConfigurationChanged(final Configuration newConfig)
+	{
+		// nothing to do
+	}
+
+
+	@TargetApi(Build.VERSION_CODES.GINGERBREAD)
+	private static void write(final DiffingEditor editor)
+	{
+		if (!editor.hasChanges())
+		{
+			// nothing has changed, don't rewrite the file
+			return;
+		}
+
+		if (VERSION.SDK_INT >= VERSION_CODES.GINGERBREAD)
+		{
+			// write out asynchronously on newer platforms
+			editor.apply();
+		}
+		else
+		{
+			// use the synchronous call on older platforms
+			editor.commit();
+		}
+	}
+}
@@ -0,0 +1,1107 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+
+import android.annotation.TargetApi;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.Editor;
+import android.os.Build;
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.Parcelable;
+import android.util.SparseArray;
+
+
+/**
+ * Resolves the {@link PersistenceHelper}s of field types.
+ * <p>
+ * Helpers are created on demand, the first time a field of the respective type is resolved. Each helper is a class of its own, so this way an app only loads
+ * the helpers of the types it actually retains.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class PersistenceHelpers
+{
+	/**
+	 * The supported non-final classes and interfaces in the order of their priority. A simple <code>get()</code> won't match these, so we check each of them
+	 * and take the first one that's assignable from the field type.
+	 * <p>
+	 * The order is relevant for classes that implement more than one of these. The more specific and more efficient types come first, {@link Serializable}
+	 * comes last, so a class that implements {@link Parcelable} and {@link Serializable} is always stored as a {@link Parcelable}. The annotation processor
+	 * uses the same order.
+	 * </p>
+	 */
+	private final static Class<?>[] OTHER_CLASSES = { Parcelable.class, Parcelable[].class, CharSequence.class, CharSequence[].class, IBinder.class,
+		Serializable.class };
+
+	/**
+	 * The supported non-final generic types of {@link ArrayList}s in the order of their priority, see {@link #OTHER_CLASSES}.
+	 */
+	private final static Class<?>[] ARRAYLIST_OTHER_CLASSES = { Parcelable.class, CharSequence.class };
+
+	/**
+	 * Maps types to their {@link PersistenceHelper}s. This contains the supported final classes, the elements of {@link #OTHER_CLASSES} and every concrete
+	 * type that has been resolved to one of the {@link #OTHER_CLASSES}, so each type is resolved only once. The types are held weakly, the helpers don't
+	 * refer to them.
+	 * <p>
+	 * Plans may be built on a background thread. Lookups never block, in the worst case two threads create the same helper and the first one wins.
+	 * </p>
+	 */
+	private final static WeakClassCache<PersistenceHelper> HELPERS = new WeakClassCache<PersistenceHelper>();
+
+	/**
+	 * Maps generic types to their {@link ArrayList} {@link PersistenceHelper}s, see {@link #HELPERS}.
+	 * <p>
+	 * Plans may be built on a background thread. Lookups never block.
+	 * </p>
+	 */
+	private final static WeakClassCache<PersistenceHelper> ARRAYLIST_HELPERS = new WeakClassCache<PersistenceHelper>();
+
+	/**
+	 * Maps {@link RetentionCodec} classes to the {@link CodecHelper}s of their registered or created instances.
+	 * <p>
+	 * Lookups never block.
+	 * </p>
+	 */
+	@SuppressWarnings("rawtypes")
+	private final static CopyOnWriteCache<Class<? extends RetentionCodec>, PersistenceHelper> CODEC_HELPERS = new CopyOnWriteCache<Class<? extends RetentionCodec>, PersistenceHelper>();
+
+
+	/**
+	 * Don't allow instances.
+	 */
+	private PersistenceHelpers()
+	{
+	}
+
+
+	/**
+	 * Returns the {@link PersistenceHelper} for fields of the given type.
+	 * 
+	 * @param fieldType
+	 *            The type of the field.
+	 * @return The {@link PersistenceHelper} or <code>null</code> if the type is not supported.
+	 */
+	static PersistenceHelper getHelper(final Class<?> fieldType)
+	{
+		PersistenceHelper result = HELPERS.get(fieldType);
+		if (result != null)
+		{
+			return result;
+		}
+
+		result = createFinalClassHelper(fieldType);
+		if (result != null)
+		{
+			return HELPERS.putIfAbsent(fieldType, result);
+		}
+
+		for (Class<?> otherClass : OTHER_CLASSES)
+		{
+			if (otherClass.isAssignableFrom(fieldType))
+			{
+				result = HELPERS.get(otherClass);
+				if (result == null)
+				{
+					result = createOtherClassHelper(otherClass);
+					if (result == null)
+					{
+						// not supported on this platform
+						continue;
+					}
+					result = HELPERS.putIfAbsent(otherClass, result);
+				}
+				// remember the result, so we don't have to check the other classes again for this type
+				return HELPERS.putIfAbsent(fieldType, result);
+			}
+		}
+		return null;
+	}
+
+
+	/**
+	 * Returns the {@link PersistenceHelper} for fields of the given type if it has been created already. Unlike {@link #getHelper(Class)} this never creates
+	 * a helper.
+	 * 
+	 * @param fieldType
+	 *            The type of the field.
+	 * @return The {@link PersistenceHelper} or <code>null</code> if no helper has been created for this type yet.
+	 */
+	static PersistenceHelper getCachedHelper(final Class<?> fieldType)
+	{
+		return HELPERS.get(fieldType);
+	}
+
+
+	/**
+	 * Returns the {@link PersistenceHelper} for {@link ArrayList} fields of the given generic type.
+	 * 
+	 * @param genericArrayListType
+	 *            The generic type of the {@link ArrayList}.
+	 * @return The {@link PersistenceHelper} or <code>null</code> if the type is not supported.
+	 */
+	static PersistenceHelper getArrayListHelper(final Class<?> genericArrayListType)
+	{
+		PersistenceHelper result = ARRAYLIST_HELPERS.get(genericArrayListType);
+		if (result != null)
+		{
+			return result;
+		}
+
+		result = createArrayListFinalClassHelper(genericArrayListType);
+		if (result != null)
+		{
+			return ARRAYLIST_HELPERS.putIfAbsent(genericArrayListType, result);
+		}
+
+		for (Class<?> otherClass : ARRAYLIST_OTHER_CLASSES)
+		{
+			if (otherClass.isAssignableFrom(genericArrayListType))
+			{
+				result = ARRAYLIST_HELPERS.get(otherClass);
+				if (result == null)
+				{
+					result = createArrayListOtherClassHelper(otherClass);
+					if (result == null)
+					{
+						// not supported on this platform
+						continue;
+					}
+					result = ARRAYLIST_HELPERS.putIfAbsent(otherClass, result);
+				}
+				// remember the result, so we don't have to check the other classes again for this type
+				return ARRAYLIST_HELPERS.putIfAbsent(genericArrayListType, result);
+			}
+		}
+		return null;
+	}
+
+
+	/**
+	 * Registers a {@link RetentionCodec} instance. Fields annotated with a {@link org.dmfs.android.retentionmagic.annotations.RetainWith} of the class of the
+	 * codec will use this instance. Replaces any instance of the same class that has been registered or created before.
+	 * 
+	 * @param codec
+	 *            The {@link RetentionCodec} to register.
+	 */
+	static void registerCodec(final RetentionCodec<?> codec)
+	{
+		CODEC_HELPERS.put(codec.getClass(), new CodecHelper(codec));
+	}
+
+
+	/**
+	 * Returns the {@link PersistenceHelper} that delegates to the given {@link RetentionCodec} class. If no instance of the codec has been registered, a new
+	 * instance is created with its public no-argument constructor.
+	 * 
+	 * @param codecClass
+	 *            The class of the {@link RetentionCodec}.
+	 * @return The {@link PersistenceHelper}.
+	 * @throws UnsupportedOperationException
+	 *             if the codec has not been registered and can't be instantiated.
+	 */
+	@SuppressWarnings("rawtypes")
+	static PersistenceHelper getCodecHelper(final Class<? extends RetentionCodec> codecClass)
+	{
+		PersistenceHelper result = CODEC_HELPERS.get(codecClass);
+		if (result != null)
+		{
+			return result;
+		}
+
+		try
+		{
+			return CODEC_HELPERS.putIfAbsent(codecClass, new CodecHelper(codecClass.newInstance()));
+		}
+		catch (InstantiationException e)
+		{
+			throw new UnsupportedOperationException("can't instantiate codec " + codecClass.getCanonicalName() + ", register an instance instead");
+		}
+		catch (IllegalAccessException e)
+		{
+			throw new UnsupportedOperationException("can't instantiate codec " + codecClass.getCanonicalName() + ", register an instance instead");
+		}
+	}
+
+
+	/**
+	 * Creates the {@link PersistenceHelper} for the given final class. Since we don't have to expect subclasses of these classes, the type must match exactly.
+	 * 
+	 * @param type
+	 *            The type of the field.
+	 * @return The {@link PersistenceHelper} or <code>null</code> if the type is not a supported final class.
+	 */
+	private static PersistenceHelper createFinalClassHelper(final Class<?> type)
+	{
+		if (type == boolean.class)
+		{
+			return new PersistenceHelper()
+			{
+
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.setBoolean(instance, bundle.getBoolean(key));
+				}
+
+
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putBoolean(key, field.getBoolean(instance));
+				}
+
+
+				@Override
+				public void restoreFromPreferences(Field field, Object instance, String key, SharedPreferences prefs) throws IllegalAccessException
+				{
+					field.setBoolean(instance, prefs.getBoolean(key, field.getBoolean(instance)));
+				}
+
+
+				@Override
+				public void storeInPreferences(Field field, Object instance, String key, SharedPreferences.Editor editor) throws IllegalAccessException
+				{
+					editor.putBoolean(key, field.getBoolean(instance));
+				}
+			};
+		}
+
+		// TODO: support storing of boolean arrays as base64 encoded bit fields in SharedPreferences
+		if (type == boolean[].class)
+		{
+			return new PersistenceHelper()
+			{
+
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.set(instance, bundle.getBooleanArray(key));
+				}
+
+
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putBooleanArray(key, (boolean[]) field.get(instance));
+				}
+			};
+		}
+
+		if (type == byte.class)
+		{
+			return new PersistenceHelper()
+			{
+
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.setByte(instance, bundle.getByte(key));
+				}
+
+
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putByte(key, field.getByte(instance));
+				}
+
+
+				@Override
+				public void restoreFromPreferences(Field field, Object instance, String key, SharedPreferences prefs) throws IllegalAccessException
+				{
+					field.setByte(instance, (byte) (prefs.getInt(key, field.getByte(instance)) & 0xff));
+				}
+
+
+				@Override
+				public void storeInPreferences(Field field, Object instance, String key, SharedPreferences.Editor editor) throws IllegalAccessException
+				{
+					editor.putInt(key, field.getByte(instance));
+				}
+			};
+		}
+
+		// TODO: support storing byte arrays as Base64 encoded arrays in SharedPreferences
+		if (type == byte[].class)
+		{
+			return new PersistenceHelper()
+			{
+
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.set(instance, bundle.getByteArray(key));
+				}
+
+
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putByteArray(key, (byte[]) field.get(instance));
+				}
+			};
+		}
+
+		if (type == short.class)
+		{
+			return new PersistenceHelper()
+			{
+
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.setShort(instance, bundle.getShort(key));
+				}
+
+
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putShort(key, field.getShort(instance));
+				}
+
+
+				@Override
+				public void restoreFromPreferences(Field field, Object instance, String key, SharedPreferences prefs) throws IllegalAccessException
+				{
+					field.setShort(instance, (short) prefs.getInt(key, field.getShort(instance)));
+				}
+
+
+				@Override
+				public void storeInPreferences(Field field, Object instance, String key, SharedPreferences.Editor editor) throws IllegalAccessException
+				{
+					editor.putInt(key, field.getShort(instance));
+				}
+			};
+		}
+
+		// TODO: support storing short arrays as Base64 encoded arrays in SharedPreferences
+		if (type == short[].class)
+		{
+			return new PersistenceHelper()
+			{
+
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.set(instance, bundle.getShortArray(key));
+				}
+
+
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putShortArray(key, (short[]) field.get(instance));
+				}
+			};
+		}
+
+		if (type == char.class)
+		{
+			return new PersistenceHelper()
+			{
+
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.setChar(instance, bundle.getChar(key));
+				}
+
+
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putChar(key, field.getChar(instance));
+				}
+
+
+				@Override
+				public void restoreFromPreferences(Field field, Object instance, String key, SharedPreferences prefs) throws IllegalAccessException
+				{
+					field.setChar(instance, (char) prefs.getInt(key, field.getChar(instance)));
+				}
+
+
+				@Override
+				public void storeInPreferences(Field field, Object instance, String key, SharedPreferences.Editor editor) throws IllegalAccessException
+				{
+					editor.putInt(key, field.getChar(instance));
+				}
+			};
+		}
+
+		if (type == char[].class)
+		{
+			return new PersistenceHelper()
+			{
+
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.set(instance, bundle.getCharArray(key));
+				}
+
+
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putCharArray(key, (char[]) field.get(instance));
+				}
+
+
+				@Override
+				public void restoreFromPreferences(Field field, Object instance, String key, SharedPreferences prefs) throws IllegalAccessException
+				{
+					field.set(instance, prefs.getString(key, new String((char[]) field.get(instance))).toCharArray());
+				}
+
+
+				@Override
+				public void storeInPreferences(Field field, Object instance, String key, SharedPreferences.Editor editor) throws IllegalAccessException
+				{
+					editor.putString(key, new String((char[]) field.get(instance)));
+				}
+
+			};
+		}
+
+		if (type == int.class)
+		{
+			return new PersistenceHelper()
+			{
+
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.setInt(instance, bundle.getInt(key));
+				}
+
+
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putInt(key, field.getInt(instance));
+				}
+
+
+				@Override
+				public void restoreFromPreferences(Field field, Object instance, String key, SharedPreferences prefs) throws IllegalAccessException
+				{
+					field.setInt(instance, prefs.getInt(key, field.getInt(instance)));
+				}
+
+
+				@Override
+				public void storeInPreferences(Field field, Object instance, String key, SharedPreferences.Editor editor) throws IllegalAccessException
+				{
+					editor.putInt(key, field.getInt(instance));
+				}
+
+			};
+		}
+
+		// TODO: support storing integer arrays as Base64 encoded arrays in SharedPreferences
+		if (type == int[].class)
+		{
+			return new PersistenceHelper()
+			{
+
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.set(instance, bundle.getIntArray(key));
+				}
+
+
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putIntArray(key, (int[]) field.get(instance));
+				}
+			};
+		}
+
+		if (type == long.class)
+		{
+			return new PersistenceHelper()
+			{
+
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.setLong(instance, bundle.getLong(key));
+				}
+
+
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putLong(key, field.getLong(instance));
+				}
+
+
+				@Override
+				public void restoreFromPreferences(Field field, Object instance, String key, SharedPreferences prefs) throws IllegalAccessException
+				{
+					field.setLong(instance, prefs.getLong(key, field.getLong(instance)));
+				}
+
+
+				@Override
+				public void storeInPreferences(Field field, Object instance, String key, SharedPreferences.Editor editor) throws IllegalAccessException
+				{
+					editor.putLong(key, field.getLong(instance));
+				}
+			};
+		}
+
+		if (type == long[].class)
+		{
+			return new PersistenceHelper()
+			{
+
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.set(instance, bundle.getLongArray(key));
+				}
+
+
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putLongArray(key, (long[]) field.get(instance));
+				}
+
+
+				@Override
+				public void storeInPreferences(Field field, Object instance, String key, Editor editor) throws IllegalAccessException
+				{
+					StringBuilder arrayStringBuilder = new StringBuilder(1024);
+					long[] longArray = (long[]) field.get(instance);
+
+					if (longArray != null)
+					{
+						boolean first = true;
+						for (int i = 0; i < longArray.length; i++)
+						{
+							if (first)
+							{
+								first = !first;
+							}
+							else
+							{
+								arrayStringBuilder.append(",");
+							}
+							arrayStringBuilder.append(longArray[i]);
+						}
+						editor.putString(key, arrayStringBuilder.toString());
+					}
+					else
+					{
+						editor.putString(key, null);
+					}
+				}
+
+
+				@Override
+				public void restoreFromPreferences(Field field, Object instance, String key, SharedPreferences prefs) throws IllegalAccessException
+				{
+					String longArrayPref = prefs.getString(key, (String) field.get(instance));
+					long[] longArray = null;
+
+					if (longArrayPref != null)
+					{
+						if (longArrayPref.length() > 0)
+						{
+							String[] arrayString = longArrayPref.split(",");
+							longArray = new long[arrayString.length];
+							for (int i = 0; i < longArray.length; i++)
+							{
+								longArray[i] = Long.valueOf(arrayString[i]);
+							}
+						}
+						else
+						{
+							longArray = new long[0];
+						}
+					}
+					field.set(instance, longArray);
+				}
+			};
+		}
+
+		if (type == float.class)
+		{
+			return new PersistenceHelper()
+			{
+
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.setFloat(instance, bundle.getFloat(key));
+				}
+
+
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putFloat(key, field.getFloat(instance));
+				}
+
+
+				@Override
+				public void restoreFromPreferences(Field field, Object instance, String key, SharedPreferences prefs) throws IllegalAccessException
+				{
+					field.setFloat(instance, prefs.getFloat(key, field.getFloat(instance)));
+				}
+
+
+				@Override
+				public void storeInPreferences(Field field, Object instance, String key, SharedPreferences.Editor editor) throws IllegalAccessException
+				{
+					editor.putFloat(key, field.getFloat(instance));
+				}
+			};
+		}
+
+		// TODO: support storing float arrays as Base64 encoded arrays in SharedPreferences
+		if (type == float[].class)
+		{
+			return new PersistenceHelper()
+			{
+
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.set(instance, bundle.getFloatArray(key));
+				}
+
+
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putFloatArray(key, (float[]) field.get(instance));
+				}
+			};
+		}
+
+		// TODO: support douple in SharedPreferences
+		if (type == double.class)
+		{
+			return new PersistenceHelper()
+			{
+
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.setDouble(instance, bundle.getDouble(key));
+				}
+
+
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putDouble(key, field.getDouble(instance));
+				}
+			};
+		}
+
+		// TODO: support storing double arrays as Base64 encoded arrays in SharedPreferences
+		if (type == double[].class)
+		{
+			return new PersistenceHelper()
+			{
+
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.set(instance, bundle.getDoubleArray(key));
+				}
+
+
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putDoubleArray(key, (double[]) field.get(instance));
+				}
+			};
+		}
+
+		if (type == String.class)
+		{
+			return new PersistenceHelper()
+			{
+
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.set(instance, bundle.getString(key));
+				}
+
+
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putString(key, (String) field.get(instance));
+				}
+
+
+				@Override
+				public void restoreFromPreferences(Field field, Object instance, String key, SharedPreferences prefs) throws IllegalAccessException
+				{
+					field.set(instance, prefs.getString(key, (String) field.get(instance)));
+				}
+
+
+				@Override
+				public void storeInPreferences(Field field, Object instance, String key, SharedPreferences.Editor editor) throws IllegalAccessException
+				{
+					editor.putString(key, (String) field.get(instance));
+				}
+
+			};
+		}
+
+		// TODO: support storing string arrays in SharedPreferences
+		if (type == String[].class)
+		{
+			return new PersistenceHelper()
+			{
+
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.set(instance, bundle.getStringArray(key));
+				}
+
+
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putStringArray(key, (String[]) field.get(instance));
+				}
+			};
+		}
+
+		if (type == Bundle.class)
+		{
+			return new PersistenceHelper()
+			{
+
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.set(instance, bundle.getBundle(key));
+				}
+
+
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putBundle(key, (Bundle) field.get(instance));
+				}
+			};
+		}
+
+		if (type == SparseArray.class)
+		{
+			return new PersistenceHelper()
+			{
+
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.set(instance, bundle.getSparseParcelableArray(key));
+				}
+
+
+				@SuppressWarnings("unchecked")
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putSparseParcelableArray(key, (SparseArray<Parcelable>) field.get(instance));
+				}
+			};
+		}
+
+		return null;
+	}
+
+
+	/**
+	 * Creates the {@link PersistenceHelper} for the given non-final class or interface, which must be one of {@link #OTHER_CLASSES}.
+	 * 
+	 * @param type
+	 *            The non-final class or interface.
+	 * @return The {@link PersistenceHelper} or <code>null</code> if the type is not supported on this platform.
+	 */
+	private static PersistenceHelper createOtherClassHelper(final Class<?> type)
+	{
+		if (type == CharSequence.class)
+		{
+			return new PersistenceHelper()
+			{
+
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.set(instance, bundle.getCharSequence(key));
+				}
+
+
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putCharSequence(key, (CharSequence) field.get(instance));
+				}
+			};
+		}
+
+		if (type == CharSequence[].class && VERSION.SDK_INT >= VERSION_CODES.FROYO)
+		{
+			// Bundle doesn't support CharSequence arrays prior to SDK version 8
+			return new PersistenceHelper()
+			{
+
+				@TargetApi(Build.VERSION_CODES.FROYO)
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.set(instance, bundle.getCharSequenceArray(key));
+				}
+
+
+				@TargetApi(Build.VERSION_CODES.FROYO)
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putCharSequenceArray(key, (CharSequence[]) field.get(instance));
+				}
+			};
+		}
+
+		if (type == Parcelable.class)
+		{
+			return new PersistenceHelper()
+			{
+
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.set(instance, bundle.getParcelable(key));
+				}
+
+
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putParcelable(key, (Parcelable) field.get(instance));
+				}
+			};
+		}
+
+		if (type == Parcelable[].class)
+		{
+			return new PersistenceHelper()
+			{
+
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.set(instance, bundle.getParcelableArray(key));
+				}
+
+
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putParcelableArray(key, (Parcelable[]) field.get(instance));
+				}
+			};
+		}
+
+		if (type == Serializable.class)
+		{
+			return new PersistenceHelper()
+			{
+
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.set(instance, bundle.getSerializable(key));
+				}
+
+
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putSerializable(key, (Serializable) field.get(instance));
+				}
+			};
+		}
+
+		if (type == IBinder.class && Build.VERSION.SDK_INT >= 18)
+		{
+			// Bundle doesn't support IBinders prior to SDK version 18
+			return new PersistenceHelper()
+			{
+
+				@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.set(instance, bundle.getBinder(key));
+				}
+
+
+				@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putBinder(key, (IBinder) field.get(instance));
+				}
+			};
+		}
+
+		return null;
+	}
+
+
+	/**
+	 * Creates the {@link PersistenceHelper} for {@link ArrayList}s of the given final generic type.
+	 * 
+	 * @param type
+	 *            The generic type of the {@link ArrayList}.
+	 * @return The {@link PersistenceHelper} or <code>null</code> if the type is not a supported final class.
+	 */
+	private static PersistenceHelper createArrayListFinalClassHelper(final Class<?> type)
+	{
+		if (type == Integer.class)
+		{
+			return new PersistenceHelper()
+			{
+
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.set(instance, bundle.getIntegerArrayList(key));
+				}
+
+
+				@SuppressWarnings("unchecked")
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putIntegerArrayList(key, (ArrayList<Integer>) field.get(instance));
+				}
+			};
+		}
+
+		if (type == String.class)
+		{
+			return new PersistenceHelper()
+			{
+
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.set(instance, bundle.getStringArrayList(key));
+				}
+
+
+				@SuppressWarnings("unchecked")
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putStringArrayList(key, (ArrayList<String>) field.get(instance));
+				}
+			};
+		}
+
+		return null;
+	}
+
+
+	/**
+	 * Creates the {@link PersistenceHelper} for {@link ArrayList}s of the given non-final generic type, which must be one of
+	 * {@link #ARRAYLIST_OTHER_CLASSES}.
+	 * 
+	 * @param type
+	 *            The non-final generic type of the {@link ArrayList}.
+	 * @return The {@link PersistenceHelper} or <code>null</code> if the type is not supported on this platform.
+	 */
+	private static PersistenceHelper createArrayListOtherClassHelper(final Class<?> type)
+	{
+		if (type == CharSequence.class && VERSION.SDK_INT >= VERSION_CODES.FROYO)
+		{
+			// Bundle doesn't support CharSequence ArrayLists prior to SDK version 8
+			return new PersistenceHelper()
+			{
+
+				@TargetApi(Build.VERSION_CODES.FROYO)
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.set(instance, bundle.getCharSequenceArrayList(key));
+				}
+
+
+				@TargetApi(Build.VERSION_CODES.FROYO)
+				@SuppressWarnings("unchecked")
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putCharSequenceArrayList(key, (ArrayList<CharSequence>) field.get(instance));
+				}
+			};
+		}
+
+		if (type == Parcelable.class)
+		{
+			return new PersistenceHelper()
+			{
+
+				@Override
+				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					field.set(instance, bundle.getParcelableArrayList(key));
+				}
+
+
+				@SuppressWarnings("unchecked")
+				@Override
+				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
+				{
+					bundle.putParcelableArrayList(key, (ArrayList<Parcelable>) field.get(instance));
+				}
+			};
+		}
+
+		return null;
+	}
+}
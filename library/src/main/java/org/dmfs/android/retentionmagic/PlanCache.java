@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * The cache of the {@link RetentionPlan}s. It can be bounded, in which case it evicts the least recently used plans.
+ * <p>
+ * Like {@link CopyOnWriteCache} this publishes an immutable map via a volatile field, so lookups never block. In a bounded cache a lookup updates the access
+ * time of the entry, and it updates the hit and miss counters if statistics are enabled. An unbounded cache without statistics does nothing but the map
+ * lookup. Since the access times are updated without synchronization, the eviction order is an approximation, which is good enough to keep the plans of
+ * the screens in use.
+ * </p>
+ * <p>
+ * Note that the plans can't be referenced weakly by class. Each plan holds the {@link java.lang.reflect.Field}s of its class, which reference the class, so
+ * the class would never become weakly reachable.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class PlanCache
+{
+	/**
+	 * A cached plan with its last access time.
+	 */
+	private final static class Entry
+	{
+		final RetentionPlan plan;
+		volatile long lastAccess;
+
+
+		Entry(RetentionPlan plan)
+		{
+			this.plan = plan;
+			this.lastAccess = System.nanoTime();
+		}
+	}
+
+	/**
+	 * The current map. It's never modified after it has been published.
+	 */
+	private volatile Map<Class<?>, Entry> mMap = Collections.emptyMap();
+
+	/**
+	 * The maximum number of plans or <code>0</code> if the cache is not bounded.
+	 */
+	private volatile int mMaxSize;
+
+	/**
+	 * Whether lookups update the hit and miss counters.
+	 */
+	private volatile boolean mStatsEnabled;
+
+	private final AtomicLong mHits = new AtomicLong();
+	private final AtomicLong mMisses = new AtomicLong();
+	private final AtomicLong mEvictions = new AtomicLong();
+
+
+	/**
+	 * Returns the {@link RetentionPlan} of the given class. This never blocks.
+	 * 
+	 * @param classInstance
+	 *            The class.
+	 * @return The {@link RetentionPlan} or <code>null</code> if the cache doesn't contain a plan for this class.
+	 */
+	RetentionPlan get(final Class<?> classInstance)
+	{
+		Entry entry = mMap.get(classInstance);
+		if (entry == null)
+		{
+			if (mStatsEnabled)
+			{
+				mMisses.incrementAndGet();
+			}
+			return null;
+		}
+		if (mMaxSize > 0)
+		{
+			// only a bounded cache needs the access time
+			entry.lastAccess = System.nanoTime();
+		}
+		if (mStatsEnabled)
+		{
+			mHits.incrementAndGet();
+		}
+		return entry.plan;
+	}
+
+
+	/**
+	 * Adds the given plan unless the cache already contains a plan for the class. If that exceeds the maximum size, the least recently used plans are
+	 * evicted.
+	 * 
+	 * @param classInstance
+	 *            The class.
+	 * @param plan
+	 *            The {@link RetentionPlan} of the class.
+	 * @return The plan in the cache, which is the given plan or the plan that has been added by another thread before.
+	 */
+	synchronized RetentionPlan putIfAbsent(final Class<?> classInstance, final RetentionPlan plan)
+	{
+		Entry current = mMap.get(classInstance);
+		if (current != null)
+		{
+			return current.plan;
+		}
+		Map<Class<?>, Entry> map = new HashMap<Class<?>, Entry>(mMap);
+		map.put(classInstance, new Entry(plan));
+		evict(map, classInstance);
+		mMap = map;
+		return plan;
+	}
+
+
+	/**
+	 * Sets the maximum number of plans. If the cache contains more plans, the least recently used plans are evicted.
+	 * 
+	 * @param maxSize
+	 *            The maximum number of plans or <code>0</code> to not bound the cache.
+	 */
+	synchronized void setMaxSize(final int maxSize)
+	{
+		if (maxSize < 0)
+		{
+			throw new IllegalArgumentException("maxSize must not be negative");
+		}
+		mMaxSize = maxSize;
+		Map<Class<?>, Entry> map = new HashMap<Class<?>, Entry>(mMap);
+		evict(map, null);
+		mMap = map;
+	}
+
+
+	/**
+	 * Enables or disables the hit and miss counters. They are disabled by default, so lookups don't have to update them.
+	 * 
+	 * @param enabled
+	 *            <code>true</code> to count hits and misses.
+	 */
+	void setStatsEnabled(final boolean enabled)
+	{
+		mStatsEnabled = enabled;
+	}
+
+
+	/**
+	 * Returns the statistics of this cache.
+	 */
+	synchronized PlanCacheStats stats()
+	{
+		return new PlanCacheStats(mHits.get(), mMisses.get(), mEvictions.get(), mMap.size(), mMaxSize);
+	}
+
+
+	/**
+	 * Evicts the least recently used entries from the given map until it doesn't exceed the maximum size.
+	 * 
+	 * @param map
+	 *            The map to evict entries from.
+	 * @param keep
+	 *            The class of an entry that must not be evicted, may be <code>null</code>.
+	 */
+	private void evict(final Map<Class<?>, Entry> map, final Class<?> keep)
+	{
+		if (mMaxSize == 0)
+		{
+			return;
+		}
+
+		while (map.size() > mMaxSize)
+		{
+			Class<?> oldest = null;
+			long oldestAccess = 0;
+			for (Map.Entry<Class<?>, Entry> entry : map.entrySet())
+			{
+				long lastAccess = entry.getValue().lastAccess;
+				if (entry.getKey() != keep && (oldest == null || lastAccess - oldestAccess < 0))
+				{
+					oldest = entry.getKey();
+					oldestAccess = lastAccess;
+				}
+			}
+			map.remove(oldest);
+			mEvictions.incrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic;
+
+/**
+ * A snapshot of the statistics of the {@link RetentionPlan} cache. See {@link RetentionMagic#getPlanCacheStats()}.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class PlanCacheStats
+{
+	private final long mHits;
+	private final long mMisses;
+	private final long mEvictions;
+	private final int mSize;
+	private final int mMaxSize;
+
+
+	PlanCacheStats(long hits, long misses, long evictions, int size, int maxSize)
+	{
+		mHits = hits;
+		mMisses = misses;
+		mEvictions = evictions;
+		mSize = size;
+		mMaxSize = maxSize;
+	}
+
+
+	/**
+	 * Returns the number of lookups that found a cached plan while counting was enabled.
+	 */
+	public long hitCount()
+	{
+		return mHits;
+	}
+
+
+	/**
+	 * Returns the number of lookups that didn't find a cached plan while counting was enabled, i.e. the number of plans that have been built.
+	 */
+	public long missCount()
+	{
+		return mMisses;
+	}
+
+
+	/**
+	 * Returns the number of plans that have been evicted to keep the cache within its maximum size.
+	 */
+	public long evictionCount()
+	{
+		return mEvictions;
+	}
+
+
+	/**
+	 * Returns the number of plans in the cache.
+	 */
+	public int size()
+	{
+		return mSize;
+	}
+
+
+	/**
+	 * Returns the maximum number of plans in the cache or <code>0</code> if the cache is not bounded.
+	 */
+	public int maxSize()
+	{
+		return mMaxSize;
+	}
+
+
+	@Override
+	public String toString()
+	{
+		return "PlanCacheStats[hits=" + mHits + ", misses=" + mMisses + ", evictions=" + mEvictions + ", size=" + mSize + ", maxSize=" + mMaxSize + "]";
+	}
+}
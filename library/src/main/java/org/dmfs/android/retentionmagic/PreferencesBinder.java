@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic;
+
+import android.content.SharedPreferences;
+
+
+/**
+ * Loads and persists the permanent fields (those annotated with <code>@Retain(permanent = true)</code>) of a specific class without reflection.
+ * <p>
+ * Implementations are generated at compile time by the RetentionMagic annotation processor. For a class <code>com.example.DemoActivity</code> the processor
+ * generates <code>com.example.DemoActivity_PreferencesBinder</code>, which is picked up by {@link RetentionMagic} automatically. All keys are computed at
+ * compile time, only the instance name space (if any) is resolved at runtime. You should not implement this interface yourself.
+ * </p>
+ * 
+ * @param <T>
+ *            The type of the class that contains the permanent fields.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public interface PreferencesBinder<T>
+{
+	/**
+	 * Initialize all permanent fields of the given instance from the {@link SharedPreferences}. Fields that don't have a value in the preferences keep their
+	 * current value.
+	 * 
+	 * @param instance
+	 *            The instance to initialize.
+	 * @param prefs
+	 *            The {@link SharedPreferences} to load the values from.
+	 */
+	public void init(T instance, SharedPreferences prefs);
+
+
+	/**
+	 * Write all permanent fields of the given instance to a {@link SharedPreferences.Editor}.
+	 * 
+	 * @param instance
+	 *            The instance to persist.
+	 * @param editor
+	 *            The {@link SharedPreferences.Editor} to write the values to.
+	 */
+	public void persist(T instance, SharedPreferences.Editor editor);
+}
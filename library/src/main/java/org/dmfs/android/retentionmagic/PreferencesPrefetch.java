@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic;
+
+import java.util.concurrent.CountDownLatch;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+
+/**
+ * Loads the {@link SharedPreferences} of a {@link PersistenceBackend} in the background, see
+ * {@link RetentionMagic#prefetchAsync(java.util.concurrent.Executor, Context)}.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class PreferencesPrefetch implements Runnable
+{
+	private final Context mContext;
+
+	private final PersistenceBackend mBackend;
+
+	private final String mName;
+
+	private final CountDownLatch mLoaded = new CountDownLatch(1);
+
+	/**
+	 * The loaded preferences, <code>null</code> until they have been loaded or if loading failed.
+	 */
+	private volatile SharedPreferences mPrefs;
+
+
+	PreferencesPrefetch(final Context context, final PersistenceBackend backend, final String name)
+	{
+		mContext = context;
+		mBackend = backend;
+		mName = name;
+	}
+
+
+	@Override
+	public void run()
+	{
+		try
+		{
+			SharedPreferences prefs = mBackend.getPreferences(mContext, mName);
+			// SharedPreferences load the file in the background, the first read blocks until the file has been loaded
+			prefs.contains(mName);
+			mPrefs = prefs;
+		}
+		catch (RuntimeException e)
+		{
+			// don't kill the executor thread, the preferences will be loaded on demand
+			e.printStackTrace();
+		}
+		finally
+		{
+			mLoaded.countDown();
+		}
+	}
+
+
+	/**
+	 * Returns whether this prefetches the given preferences.
+	 */
+	boolean matches(final PersistenceBackend backend, final String name)
+	{
+		return mBackend == backend && mName.equals(name);
+	}
+
+
+	/**
+	 * Returns whether loading has finished (successfully or not).
+	 */
+	boolean isDone()
+	{
+		return mLoaded.getCount() == 0;
+	}
+
+
+	/**
+	 * Waits until loading has finished.
+	 * 
+	 * @return The {@link SharedPreferences} or <code>null</code> if loading failed.
+	 */
+	SharedPreferences await()
+	{
+		boolean interrupted = false;
+		while (true)
+		{
+			try
+			{
+				mLoaded.await();
+				break;
+			}
+			catch (InterruptedException e)
+			{
+				// we need the preferences anyway, wait again and restore the flag afterwards
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+		{
+			Thread.currentThread().interrupt();
+		}
+		return mPrefs;
+	}
+}
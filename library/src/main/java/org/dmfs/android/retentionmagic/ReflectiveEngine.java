@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic;
+
+import android.content.SharedPreferences;
+import android.os.Bundle;
+
+
+/**
+ * A {@link RetentionEngine} that accesses the fields via reflection. It works with any class, but it's slower than the {@link GeneratedEngine}.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class ReflectiveEngine implements RetentionEngine
+{
+	@Override
+	public void store(final Class<?> classInstance, final Object instance, final Bundle instanceState) throws IllegalAccessException
+	{
+		RetentionMagic.getPlan(classInstance).store(instance, instanceState);
+	}
+
+
+	@Override
+	public void restore(final Class<?> classInstance, final Object instance, final Bundle instanceState) throws IllegalAccessException
+	{
+		RetentionMagic.getPlan(classInstance).restore(instance, instanceState);
+	}
+
+
+	@Override
+	public void inject(final Class<?> classInstance, final Object instance, final Bundle arguments) throws IllegalAccessException
+	{
+		RetentionMagic.getPlan(classInstance).inject(instance, arguments);
+	}
+
+
+	@Override
+	public void init(final Class<?> classInstance, final Object instance, final SharedPreferences prefs) throws IllegalAccessException
+	{
+		RetentionMagic.getPlan(classInstance).init(instance, prefs);
+	}
+
+
+	@Override
+	public void persist(final Class<?> classInstance, final Object instance, final SharedPreferences.Editor editor) throws IllegalAccessException
+	{
+		RetentionMagic.getPlan(classInstance).persist(instance, editor);
+	}
+
+
+	@Override
+	public void prewarm(final Class<?> classInstance)
+	{
+		RetentionMagic.getPlan(classInstance);
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic;
+
+import org.dmfs.android.retentionmagic.annotations.RetainWith;
+
+import android.os.Bundle;
+
+
+/**
+ * Stores and restores values of a specific type in a {@link Bundle}. Attach a codec to a field with {@link RetainWith}.
+ * <p>
+ * Codecs must be stateless and thread safe, since a single instance is shared by all fields and instances that use it.
+ * </p>
+ * 
+ * @param <T>
+ *            The type of the values.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public interface RetentionCodec<T>
+{
+	/**
+	 * Store a value in the given {@link Bundle}.
+	 * 
+	 * @param bundle
+	 *            The {@link Bundle} to store the value in.
+	 * @param key
+	 *            The key of the value.
+	 * @param value
+	 *            The value to store, may be <code>null</code>.
+	 */
+	public void put(Bundle bundle, String key, T value);
+
+
+	/**
+	 * Load a value from the given {@link Bundle}.
+	 * 
+	 * @param bundle
+	 *            The {@link Bundle} to load the value from.
+	 * @param key
+	 *            The key of the value.
+	 * @return The value, may be <code>null</code> if the {@link Bundle} doesn't contain the key.
+	 */
+	public T get(Bundle bundle, String key);
+}
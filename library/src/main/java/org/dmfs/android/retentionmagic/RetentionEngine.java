@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic;
+
+import android.content.SharedPreferences;
+import android.os.Bundle;
+
+
+/**
+ * An engine that stores, restores and initializes the annotated fields of Activities and Fragments. {@link RetentionMagic} selects an engine per class,
+ * see {@link RetentionMagic#setEngine(RetentionEngine)} and {@link RetentionMagic#setEngine(Class, RetentionEngine)} to force a specific engine.
+ * <p>
+ * The available engines are {@link RetentionMagic#REFLECTIVE_ENGINE} and {@link RetentionMagic#GENERATED_ENGINE}.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public interface RetentionEngine
+{
+	/**
+	 * Store all retainable fields of the given instance in a {@link Bundle}.
+	 * 
+	 * @param classInstance
+	 *            The class of the instance.
+	 * @param instance
+	 *            The instance to store.
+	 * @param instanceState
+	 *            The {@link Bundle} to store the state in.
+	 * @throws IllegalAccessException
+	 */
+	public void store(Class<?> classInstance, Object instance, Bundle instanceState) throws IllegalAccessException;
+
+
+	/**
+	 * Restore all retainable fields of the given instance from a {@link Bundle}.
+	 * 
+	 * @param classInstance
+	 *            The class of the instance.
+	 * @param instance
+	 *            The instance to restore.
+	 * @param instanceState
+	 *            The {@link Bundle} to restore the state from.
+	 * @throws IllegalAccessException
+	 */
+	public void restore(Class<?> classInstance, Object instance, Bundle instanceState) throws IllegalAccessException;
+
+
+	/**
+	 * Initialize all parameter fields of the given instance from the extras or arguments {@link Bundle}.
+	 * 
+	 * @param classInstance
+	 *            The class of the instance.
+	 * @param instance
+	 *            The instance to initialize.
+	 * @param arguments
+	 *            The extras or arguments {@link Bundle}.
+	 * @throws IllegalAccessException
+	 */
+	public void inject(Class<?> classInstance, Object instance, Bundle arguments) throws IllegalAccessException;
+
+
+	/**
+	 * Initialize all permanent fields of the given instance from the {@link SharedPreferences}.
+	 * 
+	 * @param classInstance
+	 *            The class of the instance.
+	 * @param instance
+	 *            The instance to initialize.
+	 * @param prefs
+	 *            The {@link SharedPreferences} to load the values from.
+	 * @throws IllegalAccessException
+	 */
+	public void init(Class<?> classInstance, Object instance, SharedPreferences prefs) throws IllegalAccessException;
+
+
+	/**
+	 * Write all permanent fields of the given instance to a {@link SharedPreferences.Editor}.
+	 * 
+	 * @param classInstance
+	 *            The class of the instance.
+	 * @param instance
+	 *            The instance to persist.
+	 * @param editor
+	 *            The {@link SharedPreferences.Editor} to write the values to.
+	 * @throws IllegalAccessException
+	 */
+	public void persist(Class<?> classInstance, Object instance, SharedPreferences.Editor editor) throws IllegalAccessException;
+
+
+	/**
+	 * Prepare everything this engine needs to handle the given class, so the first call of any other method doesn't have to do it. This method may be called
+	 * from any thread.
+	 * 
+	 * @param classInstance
+	 *            The class to prepare.
+	 */
+	public void prewarm(Class<?> classInstance);
+}
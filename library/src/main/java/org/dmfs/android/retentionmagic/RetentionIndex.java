@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic;
+
+import java.util.concurrent.Executor;
+
+
+/**
+ * An index of all classes of a module that use RetentionMagic annotations.
+ * <p>
+ * Implementations are generated at compile time by the RetentionMagic annotation processor for each module that sets the processor option
+ * <code>retentionmagic.index</code> to the qualified name of its index. Each module needs a unique name. The processor registers the index in
+ * <code>META-INF/services</code>, so {@link RetentionMagic#prewarmIndexedAsync(Executor)} picks up the indices of all modules. You should not implement
+ * this interface yourself.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public interface RetentionIndex
+{
+	/**
+	 * Returns the binary names (as returned by {@link Class#getName()}) of all indexed classes.
+	 * 
+	 * @return An array of class names.
+	 */
+	public String[] classNames();
+}
@@ -17,810 +17,84 @@
 
 package org.dmfs.android.retentionmagic;
 
-import java.io.Serializable;
-import java.lang.reflect.Field;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Map.Entry;
-
-import org.dmfs.android.retentionmagic.annotations.Parameter;
-import org.dmfs.android.retentionmagic.annotations.ParameterArrayList;
-import org.dmfs.android.retentionmagic.annotations.Retain;
-import org.dmfs.android.retentionmagic.annotations.RetainArrayList;
-
-import android.annotation.TargetApi;
-import android.app.Activity;
-import android.app.Fragment;
-import android.content.SharedPreferences;
-import android.content.SharedPreferences.Editor;
-import android.os.Build;
-import android.os.Build.VERSION;
-import android.os.Build.VERSION_CODES;
-import android.os.Bundle;
-import android.os.IBinder;
-import android.os.Parcelable;
-import android.util.SparseArray;
-
-
-/**
- * Helper to store and restore instance values.
- * 
- * @author Marten Gajda <marten@dmfs.org>
- */
-public final class RetentionMagic
-{
-	/**
-	 * Map of final classes to their respective {@link PersistenceHelper}s. Since we don't have to expect subclasses of these classes we can get the helpers
-	 * with a simple <code>get()</code>.
-	 * <p>
-	 * Since we're always called from the UI thread, there is no need to synchronize access to this map.
-	 * </p>
-	 */
-	private final static Map<Class<?>, PersistenceHelper> FINAL_CLASS_HELPERS = new HashMap<Class<?>, PersistenceHelper>();
-
-	/**
-	 * Map of non-final classes and interfaces to their respective {@link PersistenceHelper}s. A simple <code>get()</code> won't match, so we have to check each
-	 * key separately here.
-	 * <p>
-	 * Since we're always called from the UI thread, there is no need to synchronize access to this map.
-	 * </p>
-	 */
-	private final static Map<Class<?>, PersistenceHelper> OTHER_CLASS_HELPERS = new HashMap<Class<?>, PersistenceHelper>();
-
-	/**
-	 * Map of final generic type classes to their respective {@link PersistenceHelper}s. Since we don't have to expect subclasses of these classes we can get
-	 * the helpers with a simple <code>get()</code>.
-	 * <p>
-	 * Since we're always called from the UI thread, there is no need to synchronize access to this map.
-	 * </p>
-	 */
-	private final static Map<Class<?>, PersistenceHelper> ARRAYLIST_FINAL_CLASS_HELPERS = new HashMap<Class<?>, PersistenceHelper>();
-
-	/**
-	 * Map of non-final generic type classes and interfaces to their respective {@link PersistenceHelper}s. A simple <code>get()</code> won't match, so we have
-	 * to check each key
-	 * <p>
-	 * Since we're always called from the UI thread, there is no need to synchronize access to this map.
-	 * </p>
-	 */
-	private final static Map<Class<?>, PersistenceHelper> ARRAYLIST_OTHER_CLASS_HELPERS = new HashMap<Class<?>, PersistenceHelper>();
-
-	/**
-	 * Maps Activity and Fragment classes to a maps of fields to their respective {@link PersistenceHelper}s.
-	 */
-	private final static Map<Class<?>, Map<Field, PersistenceHelper>> CLASS_CACHE = new HashMap<Class<?>, Map<Field, PersistenceHelper>>();
-
-	static
-	{
-		FINAL_CLASS_HELPERS.put(boolean.class, new PersistenceHelper()
-		{
-
-			@Override
-			public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				field.setBoolean(instance, bundle.getBoolean(key));
-			}
-
-
-			@Override
-			public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				bundle.putBoolean(key, field.getBoolean(instance));
-			}
-
-
-			@Override
-			public void restoreFromPreferences(Field field, Object instance, String key, SharedPreferences prefs) throws IllegalAccessException
-			{
-				field.setBoolean(instance, prefs.getBoolean(key, field.getBoolean(instance)));
-			}
-
-
-			@Override
-			public void storeInPreferences(Field field, Object instance, String key, SharedPreferences.Editor editor) throws IllegalAccessException
-			{
-				editor.putBoolean(key, field.getBoolean(instance));
-			}
-		});
-
-		// TODO: support storing of boolean arrays as base64 encoded bit fields in SharedPreferences
-		FINAL_CLASS_HELPERS.put(boolean[].class, new PersistenceHelper()
-		{
-
-			@Override
-			public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				field.set(instance, bundle.getBooleanArray(key));
-			}
-
-
-			@Override
-			public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				bundle.putBooleanArray(key, (boolean[]) field.get(instance));
-			}
-		});
-
-		FINAL_CLASS_HELPERS.put(byte.class, new PersistenceHelper()
-		{
-
-			@Override
-			public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				field.setByte(instance, bundle.getByte(key));
-			}
-
-
-			@Override
-			public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				bundle.putByte(key, field.getByte(instance));
-			}
-
-
-			@Override
-			public void restoreFromPreferences(Field field, Object instance, String key, SharedPreferences prefs) throws IllegalAccessException
-			{
-				field.setByte(instance, (byte) (prefs.getInt(key, field.getByte(instance)) & 0xff));
-			}
-
-
-			@Override
-			public void storeInPreferences(Field field, Object instance, String key, SharedPreferences.Editor editor) throws IllegalAccessException
-			{
-				editor.putInt(key, field.getByte(instance));
-			}
-		});
-
-		// TODO: support storing byte arrays as Base64 encoded arrays in SharedPreferences
-		FINAL_CLASS_HELPERS.put(byte[].class, new PersistenceHelper()
-		{
-
-			@Override
-			public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				field.set(instance, bundle.getByteArray(key));
-			}
-
-
-			@Override
-			public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				bundle.putByteArray(key, (byte[]) field.get(instance));
-			}
-		});
-
-		FINAL_CLASS_HELPERS.put(short.class, new PersistenceHelper()
-		{
-
-			@Override
-			public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				field.setShort(instance, bundle.getShort(key));
-			}
-
-
-			@Override
-			public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				bundle.putShort(key, field.getShort(instance));
-			}
-
-
-			@Override
-			public void restoreFromPreferences(Field field, Object instance, String key, SharedPreferences prefs) throws IllegalAccessException
-			{
-				field.setShort(instance, (short) prefs.getInt(key, field.getShort(instance)));
-			}
-
-
-			@Override
-			public void storeInPreferences(Field field, Object instance, String key, SharedPreferences.Editor editor) throws IllegalAccessException
-			{
-				editor.putInt(key, field.getShort(instance));
-			}
-		});
-
-		// TODO: support storing short arrays as Base64 encoded arrays in SharedPreferences
-		FINAL_CLASS_HELPERS.put(short[].class, new PersistenceHelper()
-		{
-
-			@Override
-			public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				field.set(instance, bundle.getShortArray(key));
-			}
-
-
-			@Override
-			public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				bundle.putShortArray(key, (short[]) field.get(instance));
-			}
-		});
-
-		FINAL_CLASS_HELPERS.put(char.class, new PersistenceHelper()
-		{
-
-			@Override
-			public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				field.setChar(instance, bundle.getChar(key));
-			}
-
-
-			@Override
-			public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				bundle.putChar(key, field.getChar(instance));
-			}
-
-
-			@Override
-			public void restoreFromPreferences(Field field, Object instance, String key, SharedPreferences prefs) throws IllegalAccessException
-			{
-				field.setChar(instance, (char) prefs.getInt(key, field.getChar(instance)));
-			}
-
-
-			@Override
-			public void storeInPreferences(Field field, Object instance, String key, SharedPreferences.Editor editor) throws IllegalAccessException
-			{
-				editor.putInt(key, field.getChar(instance));
-			}
-		});
-
-		FINAL_CLASS_HELPERS.put(char[].class, new PersistenceHelper()
-		{
-
-			@Override
-			public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				field.set(instance, bundle.getCharArray(key));
-			}
-
-
-			@Override
-			public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				bundle.putCharArray(key, (char[]) field.get(instance));
-			}
-
-
-			@Override
-			public void restoreFromPreferences(Field field, Object instance, String key, SharedPreferences prefs) throws IllegalAccessException
-			{
-				field.set(instance, prefs.getString(key, new String((char[]) field.get(instance))).toCharArray());
-			}
-
-
-			@Override
-			public void storeInPreferences(Field field, Object instance, String key, SharedPreferences.Editor editor) throws IllegalAccessException
-			{
-				editor.putString(key, new String((char[]) field.get(instance)));
-			}
-
-		});
-
-		FINAL_CLASS_HELPERS.put(int.class, new PersistenceHelper()
-		{
-
-			@Override
-			public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				field.setInt(instance, bundle.getInt(key));
-			}
-
-
-			@Override
-			public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				bundle.putInt(key, field.getInt(instance));
-			}
-
-
-			@Override
-			public void restoreFromPreferences(Field field, Object instance, String key, SharedPreferences prefs) throws IllegalAccessException
-			{
-				field.setInt(instance, prefs.getInt(key, field.getInt(instance)));
-			}
-
-
-			@Override
-			public void storeInPreferences(Field field, Object instance, String key, SharedPreferences.Editor editor) throws IllegalAccessException
-			{
-				editor.putInt(key, field.getInt(instance));
-			}
-
-		});
-
-		// TODO: support storing integer arrays as Base64 encoded arrays in SharedPreferences
-		FINAL_CLASS_HELPERS.put(int[].class, new PersistenceHelper()
-		{
-
-			@Override
-			public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				field.set(instance, bundle.getIntArray(key));
-			}
-
-
-			@Override
-			public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				bundle.putIntArray(key, (int[]) field.get(instance));
-			}
-		});
-
-		FINAL_CLASS_HELPERS.put(long.class, new PersistenceHelper()
-		{
-
-			@Override
-			public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				field.setLong(instance, bundle.getLong(key));
-			}
-
-
-			@Override
-			public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				bundle.putLong(key, field.getLong(instance));
-			}
-
-
-			@Override
-			public void restoreFromPreferences(Field field, Object instance, String key, SharedPreferences prefs) throws IllegalAccessException
-			{
-				field.setLong(instance, prefs.getLong(key, field.getLong(instance)));
-			}
-
-
-			@Override
-			public void storeInPreferences(Field field, Object instance, String key, SharedPreferences.Editor editor) throws IllegalAccessException
-			{
-				editor.putLong(key, field.getLong(instance));
-			}
-		});
-
-		FINAL_CLASS_HELPERS.put(long[].class, new PersistenceHelper()
-		{
-
-			@Override
-			public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				field.set(instance, bundle.getLongArray(key));
-			}
-
-
-			@Override
-			public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				bundle.putLongArray(key, (long[]) field.get(instance));
-			}
-
-
-			@Override
-			public void storeInPreferences(Field field, Object instance, String key, Editor editor) throws IllegalAccessException
-			{
-				StringBuilder arrayStringBuilder = new StringBuilder(1024);
-				long[] longArray = (long[]) field.get(instance);
-
-				if (longArray != null)
-				{
-					boolean first = true;
-					for (int i = 0; i < longArray.length; i++)
-					{
-						if (first)
-						{
-							first = !first;
-						}
-						else
-						{
-							arrayStringBuilder.append(",");
-						}
-						arrayStringBuilder.append(longArray[i]);
-					}
-					editor.putString(key, arrayStringBuilder.toString());
-				}
-				else
-				{
-					editor.putString(key, null);
-				}
-			}
-
-
-			@Override
-			public void restoreFromPreferences(Field field, Object instance, String key, SharedPreferences prefs) throws IllegalAccessException
-			{
-				String longArrayPref = prefs.getString(key, (String) field.get(instance));
-				long[] longArray = null;
-
-				if (longArrayPref != null)
-				{
-					if (longArrayPref.length() > 0)
-					{
-						String[] arrayString = longArrayPref.split(",");
-						longArray = new long[arrayString.length];
-						for (int i = 0; i < longArray.length; i++)
-						{
-							longArray[i] = Long.valueOf(arrayString[i]);
-						}
-					}
-					else
-					{
-						longArray = new long[0];
-					}
-				}
-				field.set(instance, longArray);
-			}
-		});
-
-		FINAL_CLASS_HELPERS.put(float.class, new PersistenceHelper()
-		{
-
-			@Override
-			public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				field.setFloat(instance, bundle.getFloat(key));
-			}
-
-
-			@Override
-			public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				bundle.putFloat(key, field.getFloat(instance));
-			}
-
-
-			@Override
-			public void restoreFromPreferences(Field field, Object instance, String key, SharedPreferences prefs) throws IllegalAccessException
-			{
-				field.setFloat(instance, prefs.getFloat(key, field.getFloat(instance)));
-			}
-
-
-			@Override
-			public void storeInPreferences(Field field, Object instance, String key, SharedPreferences.Editor editor) throws IllegalAccessException
-			{
-				editor.putFloat(key, field.getFloat(instance));
-			}
-		});
-
-		// TODO: support storing float arrays as Base64 encoded arrays in SharedPreferences
-		FINAL_CLASS_HELPERS.put(float[].class, new PersistenceHelper()
-		{
-
-			@Override
-			public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				field.set(instance, bundle.getFloatArray(key));
-			}
-
-
-			@Override
-			public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				bundle.putFloatArray(key, (float[]) field.get(instance));
-			}
-		});
-
-		// TODO: support douple in SharedPreferences
-		FINAL_CLASS_HELPERS.put(double.class, new PersistenceHelper()
-		{
-
-			@Override
-			public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				field.setDouble(instance, bundle.getDouble(key));
-			}
-
-
-			@Override
-			public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				bundle.putDouble(key, field.getDouble(instance));
-			}
-		});
-
-		// TODO: support storing double arrays as Base64 encoded arrays in SharedPreferences
-		FINAL_CLASS_HELPERS.put(double[].class, new PersistenceHelper()
-		{
-
-			@Override
-			public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				field.set(instance, bundle.getDoubleArray(key));
-			}
-
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 
-			@Override
-			public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				bundle.putDoubleArray(key, (double[]) field.get(instance));
-			}
-		});
-
-		FINAL_CLASS_HELPERS.put(String.class, new PersistenceHelper()
-		{
-
-			@Override
-			public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				field.set(instance, bundle.getString(key));
-			}
-
-
-			@Override
-			public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				bundle.putString(key, (String) field.get(instance));
-			}
-
-
-			@Override
-			public void restoreFromPreferences(Field field, Object instance, String key, SharedPreferences prefs) throws IllegalAccessException
-			{
-				field.set(instance, prefs.getString(key, (String) field.get(instance)));
-			}
-
-
-			@Override
-			public void storeInPreferences(Field field, Object instance, String key, SharedPreferences.Editor editor) throws IllegalAccessException
-			{
-				editor.putString(key, (String) field.get(instance));
-			}
-
-		});
-
-		// TODO: support storing string arrays in SharedPreferences
-		FINAL_CLASS_HELPERS.put(String[].class, new PersistenceHelper()
-		{
-
-			@Override
-			public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				field.set(instance, bundle.getStringArray(key));
-			}
-
-
-			@Override
-			public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				bundle.putStringArray(key, (String[]) field.get(instance));
-			}
-		});
-
-		FINAL_CLASS_HELPERS.put(Bundle.class, new PersistenceHelper()
-		{
-
-			@Override
-			public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				field.set(instance, bundle.getBundle(key));
-			}
-
-
-			@Override
-			public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				bundle.putBundle(key, (Bundle) field.get(instance));
-			}
-		});
-
-		FINAL_CLASS_HELPERS.put(SparseArray.class, new PersistenceHelper()
-		{
-
-			@Override
-			public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				field.set(instance, bundle.getSparseParcelableArray(key));
-			}
-
-
-			@SuppressWarnings("unchecked")
-			@Override
-			public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				bundle.putSparseParcelableArray(key, (SparseArray<Parcelable>) field.get(instance));
-			}
-		});
-
-		ARRAYLIST_FINAL_CLASS_HELPERS.put(Integer.class, new PersistenceHelper()
-		{
-
-			@Override
-			public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				field.set(instance, bundle.getIntegerArrayList(key));
-			}
-
-
-			@SuppressWarnings("unchecked")
-			@Override
-			public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				bundle.putIntegerArrayList(key, (ArrayList<Integer>) field.get(instance));
-			}
-		});
-
-		ARRAYLIST_FINAL_CLASS_HELPERS.put(String.class, new PersistenceHelper()
-		{
-
-			@Override
-			public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				field.set(instance, bundle.getStringArrayList(key));
-			}
-
-
-			@SuppressWarnings("unchecked")
-			@Override
-			public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				bundle.putStringArrayList(key, (ArrayList<String>) field.get(instance));
-			}
-		});
-
-		if (VERSION.SDK_INT >= VERSION_CODES.FROYO)
-		{
-			// Bundle doesn't support CharSequence ArrayLists prior to SDK version 8
-			ARRAYLIST_OTHER_CLASS_HELPERS.put(CharSequence.class, new PersistenceHelper()
-			{
-
-				@TargetApi(Build.VERSION_CODES.FROYO)
-				@Override
-				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-				{
-					field.set(instance, bundle.getCharSequenceArrayList(key));
-				}
-
-
-				@TargetApi(Build.VERSION_CODES.FROYO)
-				@SuppressWarnings("unchecked")
-				@Override
-				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-				{
-					bundle.putCharSequenceArrayList(key, (ArrayList<CharSequence>) field.get(instance));
-				}
-			});
-		}
-
-		ARRAYLIST_OTHER_CLASS_HELPERS.put(Parcelable.class, new PersistenceHelper()
-		{
-
-			@Override
-			public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				field.set(instance, bundle.getParcelableArrayList(key));
-			}
-
-
-			@SuppressWarnings("unchecked")
-			@Override
-			public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				bundle.putParcelableArrayList(key, (ArrayList<Parcelable>) field.get(instance));
-			}
-		});
-
-		OTHER_CLASS_HELPERS.put(CharSequence.class, new PersistenceHelper()
-		{
-
-			@Override
-			public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				field.set(instance, bundle.getCharSequence(key));
-			}
-
-
-			@Override
-			public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				bundle.putCharSequence(key, (CharSequence) field.get(instance));
-			}
-		});
-
-		if (VERSION.SDK_INT >= VERSION_CODES.FROYO)
-		{
-			// Bundle doesn't support CharSequence arrays prior to SDK version 8
-			OTHER_CLASS_HELPERS.put(CharSequence[].class, new PersistenceHelper()
-			{
-
-				@TargetApi(Build.VERSION_CODES.FROYO)
-				@Override
-				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-				{
-					field.set(instance, bundle.getCharSequenceArray(key));
-				}
-
-
-				@TargetApi(Build.VERSION_CODES.FROYO)
-				@Override
-				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-				{
-					bundle.putCharSequenceArray(key, (CharSequence[]) field.get(instance));
-				}
-			});
-		}
-
-		OTHER_CLASS_HELPERS.put(Parcelable.class, new PersistenceHelper()
-		{
-
-			@Override
-			public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				field.set(instance, bundle.getParcelable(key));
-			}
-
-
-			@Override
-			public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				bundle.putParcelable(key, (Parcelable) field.get(instance));
-			}
-		});
-
-		OTHER_CLASS_HELPERS.put(Parcelable[].class, new PersistenceHelper()
-		{
-
-			@Override
-			public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				field.set(instance, bundle.getParcelableArray(key));
-			}
+import android.app.Activity;
+import android.app.Fragment;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Bundle;
 
 
-			@Override
-			public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				bundle.putParcelableArray(key, (Parcelable[]) field.get(instance));
-			}
-		});
+/**
+ * Helper to store and restore instance values.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class RetentionMagic
+{
+	/**
+	 * Maps Activity and Fragment classes to their {@link RetentionPlan}s.
+	 * <p>
+	 * Plans may be built on a background thread (see {@link #prewarm(Class...)}). Lookups never block, so the UI thread doesn't wait for a background thread.
+	 * </p>
+	 */
+	private final static PlanCache CLASS_CACHE = new PlanCache();
 
-		OTHER_CLASS_HELPERS.put(Serializable.class, new PersistenceHelper()
-		{
+	/**
+	 * The {@link RetentionEngine} that accesses the fields via reflection. It supports all classes.
+	 */
+	public final static RetentionEngine REFLECTIVE_ENGINE = new ReflectiveEngine();
 
-			@Override
-			public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				field.set(instance, bundle.getSerializable(key));
-			}
+	/**
+	 * The {@link RetentionEngine} that uses the binders generated by the annotation processor. It falls back to {@link #REFLECTIVE_ENGINE} for classes
+	 * without a binder. This is the default engine.
+	 */
+	public final static RetentionEngine GENERATED_ENGINE = new GeneratedEngine(REFLECTIVE_ENGINE);
 
+	/**
+	 * Maps classes to the {@link RetentionEngine}s that have been forced for them. The classes are held weakly.
+	 * <p>
+	 * Lookups never block.
+	 * </p>
+	 */
+	private final static WeakClassCache<RetentionEngine> CLASS_ENGINES = new WeakClassCache<RetentionEngine>();
 
-			@Override
-			public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-			{
-				bundle.putSerializable(key, (Serializable) field.get(instance));
-			}
-		});
+	/**
+	 * The {@link RetentionEngine} that has been forced for all classes or <code>null</code> to select the engine automatically.
+	 */
+	private static volatile RetentionEngine sEngine;
 
-		if (Build.VERSION.SDK_INT >= 18)
-		{
-			// Bundle doesn't support IBinders prior to SDK version 18
+	/**
+	 * The {@link PersistenceBackend} that stores the permanent fields in regular {@link SharedPreferences}. This is the default backend.
+	 */
+	public final static PersistenceBackend SHARED_PREFERENCES_BACKEND = new SharedPreferencesBackend();
 
-			OTHER_CLASS_HELPERS.put(IBinder.class, new PersistenceHelper()
-			{
+	/**
+	 * The name of the preferences the base classes store their permanent fields in.
+	 */
+	private final static String PREFERENCES_NAME_SUFFIX = ".sharedPrefences";
 
-				@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
-				@Override
-				public void restoreFromBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-				{
-					field.set(instance, bundle.getBinder(key));
-				}
+	/**
+	 * The {@link PersistenceBackend} that has been set or <code>null</code> to use {@link #SHARED_PREFERENCES_BACKEND}.
+	 */
+	private static volatile PersistenceBackend sPersistenceBackend;
 
+	/**
+	 * Coalesces the writes of {@link #persist(Activity, SharedPreferences)} and its siblings.
+	 */
+	private final static PersistenceCoordinator PERSISTENCE_COORDINATOR = new PersistenceCoordinator();
 
-				@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
-				@Override
-				public void storeInBundle(Field field, Object instance, String key, Bundle bundle) throws IllegalAccessException
-				{
-					bundle.putBinder(key, (IBinder) field.get(instance));
-				}
-			});
-		}
-	}
+	/**
+	 * The prefetch started by {@link #prefetchAsync(Executor, Context)} or <code>null</code>.
+	 */
+	private static volatile PreferencesPrefetch sPrefetch;
 
+	/**
+	 * The total time in nanoseconds threads have waited for the prefetch to finish.
+	 */
+	private final static AtomicLong PREFETCH_WAIT_TIME = new AtomicLong();
 
 	/**
 	 * Don't allow instances.
@@ -965,118 +239,14 @@ public final class RetentionMagic
 			return;
 		}
 
-		Map<Field, PersistenceHelper> helperCache = CLASS_CACHE.get(classInstance);
-
-		if (helperCache == null)
+		RetentionEngine engine = getEngine(classInstance);
+		if (store)
 		{
-			helperCache = new HashMap<Field, PersistenceHelper>();
-			for (Field field : classInstance.getDeclaredFields())
-			{
-				Retain retain = field.getAnnotation(Retain.class);
-				if (retain != null && !ArrayList.class.isAssignableFrom(field.getType()))
-				{
-					field.setAccessible(true);
-
-					String key = retain.key();
-					if (key == null || key.length() == 0)
-					{
-						key = field.getName();
-					}
-
-					PersistenceHelper helper = getHelper(field.getType());
-					if (helper != null)
-					{
-						if (store)
-						{
-							helper.storeInBundle(field, instance, key, instanceState);
-						}
-						else
-						{
-							helper.restoreFromBundle(field, instance, key, instanceState);
-						}
-						helperCache.put(field, helper);
-					}
-					else
-					{
-						throw new UnsupportedOperationException("field of class " + field.getType().getCanonicalName() + " not supported");
-					}
-				}
-				else if (retain != null)
-				{
-					throw new UnsupportedOperationException("@Retain does not support ArrayLists, use @RetainArrayList instead");
-				}
-				else
-				{
-					RetainArrayList retainList = field.getAnnotation(RetainArrayList.class);
-					if (retainList != null && ArrayList.class.isAssignableFrom(field.getType()))
-					{
-						field.setAccessible(true);
-						String key = retainList.key();
-						if (key == null || key.length() == 0)
-						{
-							key = field.getName();
-						}
-
-						PersistenceHelper helper = getArrayListHelper(retainList.genericType());
-						if (helper != null)
-						{
-							if (store)
-							{
-								helper.storeInBundle(field, instance, key, instanceState);
-							}
-							else
-							{
-								helper.restoreFromBundle(field, instance, key, instanceState);
-							}
-							helperCache.put(field, helper);
-						}
-						else
-						{
-							throw new UnsupportedOperationException("list with generic type of " + field.getType().getCanonicalName() + " not supported");
-						}
-					}
-					else if (retainList != null)
-					{
-						throw new UnsupportedOperationException("@RetainArrayList supports only ArrayList fields, use @Retain instead");
-					}
-				}
-			}
-			CLASS_CACHE.put(classInstance, helperCache);
+			engine.store(classInstance, instance, instanceState);
 		}
-		else
-		{
-			for (Entry<Field, PersistenceHelper> entry : helperCache.entrySet())
-			{
-				PersistenceHelper helper = entry.getValue();
-				Field field = entry.getKey();
-				if (helper != null)
-				{
-					Retain retain = field.getAnnotation(Retain.class);
-					String key;
-					if (retain != null)
-					{
-						key = retain.key();
-					}
-					else
-					{
-						key = field.getAnnotation(RetainArrayList.class).key();
-					}
-
-					if (key == null || key.length() == 0)
-					{
-						key = field.getName();
-					}
-
-					if (store)
-					{
-						helper.storeInBundle(field, instance, key, instanceState);
-					}
-					else
-					{
-						helper.restoreFromBundle(field, instance, key, instanceState);
-					}
-				}
-			}
+		else
+		{
+			engine.restore(classInstance, instance, instanceState);
 		}
 	}
 
@@ -1159,60 +329,27 @@ public final class RetentionMagic
 	}
 
 
-	@TargetApi(Build.VERSION_CODES.GINGERBREAD)
 	public static void persist(final Activity activity, final SharedPreferences prefs)
 	{
-		SharedPreferences.Editor editor = prefs.edit();
-
+		DiffingEditor editor = PERSISTENCE_COORDINATOR.edit(prefs);
 		persist(activity, editor);
-		if (VERSION.SDK_INT >= VERSION_CODES.GINGERBREAD)
-		{
-			// write out asynchronously on newer platforms
-			editor.apply();
-		}
-		else
-		{
-			// use the synchronous call on older platforms
-			editor.commit();
-		}
+		PERSISTENCE_COORDINATOR.release(prefs, editor);
 	}
 
 
-	@TargetApi(Build.VERSION_CODES.GINGERBREAD)
 	public static void persist(final Fragment fragment, final SharedPreferences prefs)
 	{
-		SharedPreferences.Editor editor = prefs.edit();
-
+		DiffingEditor editor = PERSISTENCE_COORDINATOR.edit(prefs);
 		persist(fragment, editor);
-		if (VERSION.SDK_INT >= VERSION_CODES.GINGERBREAD)
-		{
-			// write out asynchronously on newer platforms
-			editor.apply();
-		}
-		else
-		{
-			// use the synchronous call on older platforms
-			editor.commit();
-		}
+		PERSISTENCE_COORDINATOR.release(prefs, editor);
 	}
 
 
-	@TargetApi(Build.VERSION_CODES.GINGERBREAD)
 	public static void persist(final android.support.v4.app.Fragment fragment, final SharedPreferences prefs)
 	{
-		SharedPreferences.Editor editor = prefs.edit();
-
+		DiffingEditor editor = PERSISTENCE_COORDINATOR.edit(prefs);
 		persist(fragment, editor);
-		if (VERSION.SDK_INT >= VERSION_CODES.GINGERBREAD)
-		{
-			// write out asynchronously on newer platforms
-			editor.apply();
-		}
-		else
-		{
-			// use the synchronous call on older platforms
-			editor.commit();
-		}
+		PERSISTENCE_COORDINATOR.release(prefs, editor);
 	}
 
 
@@ -1257,277 +394,450 @@ public final class RetentionMagic
 
 	private static void init(final Class<?> classInstance, final Object instance, final SharedPreferences prefs) throws IllegalAccessException
 	{
-		Map<Field, PersistenceHelper> helperCache = CLASS_CACHE.get(classInstance);
+		// make sure we read what has been persisted
+		PERSISTENCE_COORDINATOR.flush(prefs);
+		getEngine(classInstance).init(classInstance, instance, prefs);
+	}
 
-		if (helperCache == null)
-		{
-			for (Field field : classInstance.getDeclaredFields())
-			{
-				Retain retain = field.getAnnotation(Retain.class);
-				if (retain != null && !ArrayList.class.isAssignableFrom(field.getType()))
-				{
-					if (!retain.permanent())
-					{
-						continue;
-					}
 
-					field.setAccessible(true);
+	private static void persist(final Class<?> classInstance, final Object instance, final SharedPreferences.Editor editor) throws IllegalAccessException
+	{
+		getEngine(classInstance).persist(classInstance, instance, editor);
+	}
 
-					String key = retain.key();
-					key = getTag(classInstance, retain.instanceNSField(), retain.classNS(), instance).append(
-						key == null || key.length() == 0 ? field.getName() : key).toString();
 
-					PersistenceHelper helper = getHelper(field.getType());
-					if (helper != null)
-					{
-						helper.restoreFromPreferences(field, instance, key, prefs);
-					}
-					else
-					{
-						throw new UnsupportedOperationException("field of class " + field.getType().getCanonicalName() + " not supported for permanent storage");
-					}
-				}
-				else if (retain != null)
-				{
-					throw new UnsupportedOperationException("@Retain does not support ArrayLists, use @RetainArrayList instead");
-				}
-			}
-		}
-		else
+	private static void init(final Class<?> classInstance, final Object instance, final Bundle bundle) throws IllegalAccessException
+	{
+		if (bundle == null || bundle.size() == 0)
 		{
-			for (Entry<Field, PersistenceHelper> entry : helperCache.entrySet())
-			{
-				PersistenceHelper helper = entry.getValue();
-				Field field = entry.getKey();
-				if (helper != null)
-				{
-					Retain retain = field.getAnnotation(Retain.class);
-					if (retain == null || !retain.permanent())
-					{
-						continue;
-					}
-					String key = retain.key();
-					key = getTag(classInstance, retain.instanceNSField(), retain.classNS(), instance).append(
-						key == null || key.length() == 0 ? field.getName() : key).toString();
-
-					helper.restoreFromPreferences(field, instance, key, prefs);
-				}
-			}
+			return;
 		}
+
+		getEngine(classInstance).inject(classInstance, instance, bundle);
 	}
 
 
-	private static void persist(final Class<?> classInstance, final Object instance, final SharedPreferences.Editor editor) throws IllegalAccessException
+	/**
+	 * Force the given {@link RetentionEngine} for all classes that don't have an engine of their own (see {@link #setEngine(Class, RetentionEngine)}). Pass
+	 * <code>null</code> to return to the automatic selection, which uses the generated binders if present and reflection otherwise.
+	 * <p>
+	 * Use this to compare engines or to fall back to {@link #REFLECTIVE_ENGINE} if one misbehaves on a specific runtime.
+	 * </p>
+	 * 
+	 * @param engine
+	 *            The {@link RetentionEngine} to use or <code>null</code>.
+	 */
+	public static void setEngine(final RetentionEngine engine)
 	{
-		Map<Field, PersistenceHelper> helperCache = CLASS_CACHE.get(classInstance);
-
-		if (helperCache == null)
-		{
-			for (Field field : classInstance.getDeclaredFields())
-			{
-				Retain retain = field.getAnnotation(Retain.class);
-				if (retain != null && !ArrayList.class.isAssignableFrom(field.getType()))
-				{
-					if (!retain.permanent())
-					{
-						continue;
-					}
-
-					field.setAccessible(true);
+		sEngine = engine;
+	}
 
-					String key = retain.key();
-					key = getTag(classInstance, retain.instanceNSField(), retain.classNS(), instance).append(
-						key == null || key.length() == 0 ? field.getName() : key).toString();
 
-					PersistenceHelper helper = getHelper(field.getType());
-					if (helper != null)
-					{
-						helper.storeInPreferences(field, instance, key, editor);
-					}
-					else
-					{
-						throw new UnsupportedOperationException("field of class " + field.getType().getCanonicalName() + " not supported for permanent storage");
-					}
-				}
-				else if (retain != null)
-				{
-					throw new UnsupportedOperationException("@Retain does not support ArrayLists, use @RetainArrayList instead");
-				}
-			}
+	/**
+	 * Force the given {@link RetentionEngine} for a specific class. This takes precedence over the engine set with {@link #setEngine(RetentionEngine)}. Pass
+	 * <code>null</code> to remove the engine of this class.
+	 * 
+	 * @param classInstance
+	 *            The class.
+	 * @param engine
+	 *            The {@link RetentionEngine} to use for this class or <code>null</code>.
+	 */
+	public static void setEngine(final Class<?> classInstance, final RetentionEngine engine)
+	{
+		if (engine == null)
+		{
+			CLASS_ENGINES.remove(classInstance);
 		}
 		else
 		{
-			for (Entry<Field, PersistenceHelper> entry : helperCache.entrySet())
-			{
-				PersistenceHelper helper = entry.getValue();
-				Field field = entry.getKey();
-				if (helper != null)
-				{
-					Retain retain = field.getAnnotation(Retain.class);
-					if (retain == null || !retain.permanent())
-					{
-						continue;
-					}
+			CLASS_ENGINES.put(classInstance, engine);
+		}
+	}
 
-					String key = retain.key();
-					key = getTag(classInstance, retain.instanceNSField(), retain.classNS(), instance).append(
-						key == null || key.length() == 0 ? field.getName() : key).toString();
 
-					helper.storeInPreferences(field, instance, key, editor);
-				}
-			}
-		}
+	/**
+	 * Set the {@link PersistenceBackend} that stores the permanent fields of the base classes. Pass <code>null</code> to return to
+	 * {@link #SHARED_PREFERENCES_BACKEND}.
+	 * <p>
+	 * Set the backend before the first Activity is created, e.g. in <code>Application.onCreate()</code>. Values that have been stored by another backend are
+	 * not visible to the new one, unless the backend migrates them (like {@link MappedPreferencesBackend} does).
+	 * </p>
+	 * 
+	 * @param backend
+	 *            The {@link PersistenceBackend} to use or <code>null</code>.
+	 */
+	public static void setPersistenceBackend(final PersistenceBackend backend)
+	{
+		sPersistenceBackend = backend;
 	}
 
 
-	private static void init(final Class<?> classInstance, final Object instance, final Bundle bundle) throws IllegalAccessException
+	/**
+	 * Returns the {@link SharedPreferences} the base classes store their permanent fields in. Use this if you call {@link #init(Activity, SharedPreferences)}
+	 * and {@link #persist(Activity, SharedPreferences.Editor)} yourself and want to share the storage with the base classes.
+	 * 
+	 * @param context
+	 *            A {@link Context}.
+	 * @return The {@link SharedPreferences} of the current {@link PersistenceBackend}.
+	 */
+	public static SharedPreferences getPreferences(final Context context)
 	{
-		if (bundle == null || bundle.size() == 0)
+		PersistenceBackend backend = sPersistenceBackend;
+		if (backend == null)
 		{
-			return;
+			backend = SHARED_PREFERENCES_BACKEND;
 		}
+		String name = context.getPackageName() + PREFERENCES_NAME_SUFFIX;
 
-		for (Field field : classInstance.getDeclaredFields())
+		PreferencesPrefetch prefetch = sPrefetch;
+		if (prefetch != null && prefetch.matches(backend, name))
 		{
-			Parameter param = field.getAnnotation(Parameter.class);
-			if (param != null && !ArrayList.class.isAssignableFrom(field.getType()))
-			{
-				field.setAccessible(true);
-
-				String key = param.key();
-				if (key == null || key.length() == 0)
-				{
-					key = field.getName();
-				}
-
-				PersistenceHelper helper = getHelper(field.getType());
-				if (helper != null)
-				{
-					helper.restoreFromBundle(field, instance, key, bundle);
-				}
-				else
-				{
-					throw new UnsupportedOperationException("field of class " + field.getType().getCanonicalName()
-						+ " not supported for initialization from a Bundle");
-				}
-			}
-			else if (param != null)
+			SharedPreferences prefs;
+			if (prefetch.isDone())
 			{
-				throw new UnsupportedOperationException("@Parameter does not support ArrayLists, use @ParameterArrayList instead");
+				prefs = prefetch.await();
 			}
 			else
 			{
-				ParameterArrayList paramList = field.getAnnotation(ParameterArrayList.class);
-				if (paramList != null && ArrayList.class.isAssignableFrom(field.getType()))
-				{
-					field.setAccessible(true);
-					String key = paramList.value();
-					if (key == null || key.length() == 0)
-					{
-						key = field.getName();
-					}
-
-					PersistenceHelper helper = getArrayListHelper(paramList.genericType());
-					if (helper != null)
-					{
-						helper.restoreFromBundle(field, instance, key, bundle);
-					}
-					else
-					{
-						throw new UnsupportedOperationException("list with generic type of " + field.getType().getCanonicalName() + " not supported");
-					}
-				}
-				else if (paramList != null)
-				{
-					throw new UnsupportedOperationException("@ParameterArrayList supports only ArrayList fields, use @Parameter instead");
-				}
+				long start = System.nanoTime();
+				prefs = prefetch.await();
+				PREFETCH_WAIT_TIME.addAndGet(System.nanoTime() - start);
 			}
 
+			if (prefs != null)
+			{
+				return prefs;
+			}
+			// the prefetch failed, try again
 		}
+		return backend.getPreferences(context, name);
+	}
+
+
+	/**
+	 * Load the {@link SharedPreferences} of the base classes (see {@link #getPreferences(Context)}) on the given {@link Executor}. Call this as early as
+	 * possible, e.g. in <code>Application.onCreate()</code>, after setting the {@link PersistenceBackend}. The preferences are usually loaded by the time the
+	 * first Activity is created, so it doesn't have to wait for the file to be read. If loading hasn't finished yet, {@link #getPreferences(Context)} waits
+	 * for it. See {@link #getPrefetchWaitTime()} for how long that took.
+	 * 
+	 * @param executor
+	 *            The {@link Executor} to load the preferences on.
+	 * @param context
+	 *            A {@link Context}.
+	 * @throws java.util.concurrent.RejectedExecutionException
+	 *             if the {@link Executor} doesn't accept the task. The preferences are loaded on demand in that case.
+	 */
+	public static void prefetchAsync(final Executor executor, final Context context)
+	{
+		Context applicationContext = context.getApplicationContext();
+		PersistenceBackend backend = sPersistenceBackend;
+		PreferencesPrefetch prefetch = new PreferencesPrefetch(applicationContext, backend == null ? SHARED_PREFERENCES_BACKEND : backend,
+			applicationContext.getPackageName() + PREFERENCES_NAME_SUFFIX);
+		executor.execute(prefetch);
+		// publish it only if it has been scheduled, otherwise nobody would ever release the callers of getPreferences
+		sPrefetch = prefetch;
 	}
 
 
-	private static PersistenceHelper getHelper(final Class<?> fieldType)
+	/**
+	 * Returns the total time in milliseconds that callers of {@link #getPreferences(Context)}, usually the base classes on the main thread, had to wait for
+	 * the prefetch started by {@link #prefetchAsync(Executor, Context)}. If this is significantly larger than <code>0</code>, start the prefetch earlier or
+	 * reduce the number of permanent fields.
+	 * 
+	 * @return The time waited in milliseconds.
+	 */
+	public static long getPrefetchWaitTime()
 	{
-		return getHelper(fieldType, FINAL_CLASS_HELPERS, OTHER_CLASS_HELPERS);
+		return PREFETCH_WAIT_TIME.get() / 1000000;
 	}
 
 
-	private static PersistenceHelper getArrayListHelper(final Class<?> genericArrayListType)
+	/**
+	 * Enable or disable coalescing of writes. It's disabled by default.
+	 * <p>
+	 * When enabled, calls to {@link #persist(Activity, SharedPreferences)} and its siblings on the main thread take the values from the fields immediately
+	 * but write them when the main looper gets to its next message. All calls in between are written in a single transaction per {@link SharedPreferences}
+	 * instance, so an Activity that stops with a couple of Fragments writes each file only once. When disabled, each call writes its own transaction. Calls
+	 * from other threads are never deferred.
+	 * </p>
+	 * <p>
+	 * Note that this changes when the values reach the {@link SharedPreferences}. Values that are pending when the process is killed (e.g. right after
+	 * <code>onStop()</code>) are lost, and reading the {@link SharedPreferences} directly right after a call to <code>persist</code> returns the old values.
+	 * {@link #init(Activity, SharedPreferences)} and its siblings always see the pending values. Call {@link #flush()} to write the pending values right
+	 * away.
+	 * </p>
+	 * 
+	 * @param enabled
+	 *            <code>true</code> to coalesce writes, <code>false</code> to write each call on its own.
+	 */
+	public static void setCoalescePersists(final boolean enabled)
 	{
-		return getHelper(genericArrayListType, ARRAYLIST_FINAL_CLASS_HELPERS, ARRAYLIST_OTHER_CLASS_HELPERS);
+		PERSISTENCE_COORDINATOR.setEnabled(enabled);
+		if (!enabled)
+		{
+			PERSISTENCE_COORDINATOR.flush();
+		}
 	}
 
 
-	private static PersistenceHelper getHelper(final Class<?> genericType, final Map<Class<?>, PersistenceHelper> finalClassHelper,
-		final Map<Class<?>, PersistenceHelper> otherClassHelper)
+	/**
+	 * Enable write-behind. {@link #persist(Activity, SharedPreferences)} and its siblings take the values from the fields immediately, but the values are
+	 * written only after no values have been persisted on the main thread for the given quiet period. This way you can persist your fields more often than
+	 * in <code>onStop()</code>, e.g. whenever they change, without rewriting the file each time.
+	 * <p>
+	 * Pending values are written when the app goes to the background ({@link android.content.ComponentCallbacks2#TRIM_MEMORY_UI_HIDDEN}), when memory gets
+	 * low, when {@link #flush()} is called and before the same {@link SharedPreferences} are read by {@link #init(Activity, SharedPreferences)} and its
+	 * siblings. Values that are pending when the process crashes are lost, so don't choose the quiet period too long. Write-behind defers the writes
+	 * regardless of {@link #setCoalescePersists(boolean)}.
+	 * </p>
+	 * 
+	 * @param context
+	 *            A {@link Context}, used to receive the memory callbacks of the application.
+	 * @param quietPeriod
+	 *            The quiet period in milliseconds or <code>0</code> to disable write-behind.
+	 */
+	public static void setWriteBehind(final Context context, final long quietPeriod)
 	{
-		PersistenceHelper result = finalClassHelper.get(genericType);
-		if (result != null)
+		if (quietPeriod < 0)
 		{
-			return result;
+			throw new IllegalArgumentException("quiet period must not be negative");
 		}
+		PERSISTENCE_COORDINATOR.setWriteBehind(context.getApplicationContext(), quietPeriod);
+	}
+
+
+	/**
+	 * Write all values that have been persisted but not written yet. You don't have to call this, pending values are written automatically, but it may be
+	 * useful in tests or right before you read the {@link SharedPreferences} yourself.
+	 */
+	public static void flush()
+	{
+		PERSISTENCE_COORDINATOR.flush();
+	}
+
 
-		for (Class<?> classClass : otherClassHelper.keySet())
+	/**
+	 * Returns the {@link RetentionEngine} to use for the given class.
+	 * 
+	 * @param classInstance
+	 *            The class.
+	 * @return The {@link RetentionEngine}, never <code>null</code>.
+	 */
+	static RetentionEngine getEngine(final Class<?> classInstance)
+	{
+		if (!CLASS_ENGINES.isEmpty())
 		{
-			if (classClass.isAssignableFrom(genericType))
+			RetentionEngine engine = CLASS_ENGINES.get(classInstance);
+			if (engine != null)
 			{
-				return otherClassHelper.get(classClass);
+				return engine;
 			}
 		}
-		return null;
+		RetentionEngine engine = sEngine;
+		return engine == null ? GENERATED_ENGINE : engine;
+	}
+
+
+	/**
+	 * Register a {@link RetentionCodec} instance for all fields that are annotated with a {@link org.dmfs.android.retentionmagic.annotations.RetainWith} of
+	 * its class. You need this only for codecs that don't have a public no-argument constructor or that need a specific configuration.
+	 * <p>
+	 * Codecs are resolved when a class is used for the first time (or when it's prewarmed), so register your codecs before that, e.g. in
+	 * <code>Application.onCreate()</code>.
+	 * </p>
+	 * 
+	 * @param codec
+	 *            The {@link RetentionCodec} to register.
+	 */
+	public static void registerCodec(final RetentionCodec<?> codec)
+	{
+		PersistenceHelpers.registerCodec(codec);
+	}
+
+
+	/**
+	 * Bound the number of cached {@link RetentionPlan}s. If the cache exceeds this size, the least recently used plans are evicted and rebuilt when they are
+	 * needed again. By default the cache is not bounded.
+	 * <p>
+	 * Use this in large apps with many screens to release the reflection data of screens that are no longer in use. Choose the size large enough to hold the
+	 * plans of all screens that are typically in use at the same time, see {@link #getPlanCacheStats()}.
+	 * </p>
+	 * <p>
+	 * Only the plans are bounded. The caches of the field type helpers, the generated binders and the engines set with
+	 * {@link #setEngine(Class, RetentionEngine)} hold their classes weakly, so they don't keep classes from being unloaded.
+	 * </p>
+	 * 
+	 * @param maxSize
+	 *            The maximum number of cached plans or <code>0</code> to not bound the cache.
+	 */
+	public static void setPlanCacheSize(final int maxSize)
+	{
+		CLASS_CACHE.setMaxSize(maxSize);
+	}
+
+
+	/**
+	 * Enable or disable counting hits and misses of the {@link RetentionPlan} cache. Counting is disabled by default, so lookups don't pay for it. Enable it
+	 * while you tune the size of the cache (see {@link #setPlanCacheSize(int)}).
+	 * 
+	 * @param enabled
+	 *            <code>true</code> to count hits and misses.
+	 */
+	public static void setPlanCacheStatsEnabled(final boolean enabled)
+	{
+		CLASS_CACHE.setStatsEnabled(enabled);
+	}
+
+
+	/**
+	 * Returns the current statistics of the {@link RetentionPlan} cache. The hit and miss counts are only updated while counting is enabled, see
+	 * {@link #setPlanCacheStatsEnabled(boolean)}.
+	 * 
+	 * @return A {@link PlanCacheStats} snapshot.
+	 */
+	public static PlanCacheStats getPlanCacheStats()
+	{
+		return CLASS_CACHE.stats();
 	}
 
 
-	private static StringBuilder getTag(final Class<?> classType, String instanceTag, String classTag, Object instance) throws IllegalAccessException
+	/**
+	 * Prepare the given classes, so the first store, restore or initialization doesn't have to scan the class. This loads the generated binders and builds
+	 * the {@link RetentionPlan}s as required by the {@link RetentionEngine} of each class.
+	 * <p>
+	 * This method may be called from any thread. Call it early, e.g. in <code>Application.onCreate()</code>, on a background thread or use
+	 * {@link #prewarmAsync(Executor, Class...)}.
+	 * </p>
+	 * 
+	 * @param classes
+	 *            The Activity and Fragment classes to prepare.
+	 * @throws UnsupportedOperationException
+	 *             if a class contains a retainable or parameter field of an unsupported type.
+	 */
+	public static void prewarm(final Class<?>... classes)
 	{
-		StringBuilder result = new StringBuilder(256);
+		for (Class<?> classInstance : classes)
+		{
+			getEngine(classInstance).prewarm(classInstance);
+		}
+	}
 
-		if (classTag != null && classTag.length() > 0)
+
+	/**
+	 * Prepare the given classes on the given {@link Executor}. Each class is prepared in a task of its own, so an {@link Executor} with multiple threads
+	 * prepares the classes in parallel. See {@link #prewarm(Class...)}.
+	 * 
+	 * @param executor
+	 *            The {@link Executor} to run the tasks on.
+	 * @param classes
+	 *            The Activity and Fragment classes to prepare.
+	 */
+	public static void prewarmAsync(final Executor executor, final Class<?>... classes)
+	{
+		for (final Class<?> classInstance : classes)
 		{
-			if (classTag.length() == 1 && classTag.charAt(0) == '.')
+			executor.execute(new Runnable()
 			{
-				try
+				@Override
+				public void run()
 				{
-					Field tagField = classType.getDeclaredField("TAG");
-					tagField.setAccessible(true);
-					result.append(tagField.get(instance).toString());
+					try
+					{
+						prewarm(classInstance);
+					}
+					catch (RuntimeException e)
+					{
+						// don't kill the executor thread, the error will surface again when the class is used
+						e.printStackTrace();
+					}
 				}
-				catch (Exception e)
+			});
+		}
+	}
+
+
+	/**
+	 * Prepare all classes of the given {@link RetentionIndex} on the given {@link Executor}. Each class is loaded and prepared in a task of its own, so an
+	 * {@link Executor} with multiple threads prepares the classes in parallel. See {@link #prewarm(Class...)}.
+	 * 
+	 * @param executor
+	 *            The {@link Executor} to run the tasks on.
+	 * @param index
+	 *            The {@link RetentionIndex} of the classes to prepare.
+	 */
+	public static void prewarmAsync(final Executor executor, final RetentionIndex index)
+	{
+		final ClassLoader classLoader = index.getClass().getClassLoader();
+		for (final String className : index.classNames())
+		{
+			executor.execute(new Runnable()
+			{
+				@Override
+				public void run()
 				{
-					result.append(classType.getCanonicalName());
+					try
+					{
+						prewarm(Class.forName(className, false, classLoader));
+					}
+					catch (ClassNotFoundException e)
+					{
+						// the class has probably been removed or renamed by ProGuard
+						e.printStackTrace();
+					}
+					catch (RuntimeException e)
+					{
+						// don't kill the executor thread, the error will surface again when the class is used
+						e.printStackTrace();
+					}
 				}
-			}
-			else
-			{
-				result.append(classTag);
-			}
-			result.append('.');
+			});
 		}
+	}
 
-		if (instanceTag != null && instanceTag.length() > 0)
+
+	/**
+	 * Prepare all classes in the indices generated by the annotation processor on the given {@link Executor}. The processor generates an index for each
+	 * module that sets the processor option <code>retentionmagic.index</code> and registers it in <code>META-INF/services</code>. The indices are loaded on
+	 * the {@link Executor} as well, so this method returns immediately. Does nothing if no index has been generated. See
+	 * {@link #prewarmAsync(Executor, RetentionIndex)}.
+	 * 
+	 * @param executor
+	 *            The {@link Executor} to run the tasks on.
+	 */
+	public static void prewarmIndexedAsync(final Executor executor)
+	{
+		executor.execute(new Runnable()
 		{
-			try
+			@Override
+			public void run()
 			{
-				Field tagField = classType.getDeclaredField(instanceTag);
-				tagField.setAccessible(true);
-				Object value = tagField.get(instance);
-				if (value != null)
+				for (RetentionIndex index : Binders.getIndices())
 				{
-					result.append(value.toString());
-					result.append('.');
+					prewarmAsync(executor, index);
 				}
 			}
-			catch (NoSuchFieldException e)
-			{
-				// ignore
-			}
-			catch (SecurityException e)
-			{
-				// ignore
-			}
-		}
+		});
+	}
+
 
-		return result;
+	/**
+	 * Returns the {@link RetentionPlan} of the given class. The plan is built on the first call and cached afterwards.
+	 * <p>
+	 * This method may be called from any thread. Lookups never block. The plan is built without holding any lock, so the UI thread doesn't wait for a
+	 * background thread that builds the plan of another class. If two threads build the plan of the same class, the first one wins.
+	 * </p>
+	 * 
+	 * @param classInstance
+	 *            The class.
+	 * @return The {@link RetentionPlan}.
+	 */
+	static RetentionPlan getPlan(final Class<?> classInstance)
+	{
+		RetentionPlan plan = CLASS_CACHE.get(classInstance);
+		if (plan == null)
+		{
+			plan = CLASS_CACHE.putIfAbsent(classInstance, RetentionPlan.build(classInstance));
+		}
+		return plan;
 	}
 }
@@ -0,0 +1,665 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.dmfs.android.retentionmagic.annotations.Parameter;
+import org.dmfs.android.retentionmagic.annotations.ParameterArrayList;
+import org.dmfs.android.retentionmagic.annotations.Retain;
+import org.dmfs.android.retentionmagic.annotations.RetainArrayList;
+import org.dmfs.android.retentionmagic.annotations.RetainWith;
+
+import android.content.SharedPreferences;
+import android.os.Bundle;
+
+
+/**
+ * The precompiled retention plan of a class. It contains all retainable fields, all permanent fields and all parameter fields together with their
+ * {@link PersistenceHelper}s and their final keys in parallel arrays. Fields with a {@link RetainWith} codec get a {@link PersistenceHelper} that delegates to
+ * the codec, so codecs are resolved only once as well.
+ * <p>
+ * The plan contains the fields of the class and of all its superclasses up to the first base class of RetentionMagic or class of the Android framework, see
+ * {@link #isBaseClass(Class)}. The hierarchy is walked only once, when the plan is built.
+ * </p>
+ * <p>
+ * A plan is built once per class and never modified afterwards. Storing, restoring and initializing an instance just iterates the arrays (grouped by
+ * type, see {@link FieldGroups}), there are no annotation lookups, no map iterations and no string operations involved. The only exception are permanent
+ * fields with name spaces that can't be resolved before an instance is known.
+ * </p>
+ * <p>
+ * Fields are accessed via {@link Field}. The faster alternatives are not an option for us: D8 rejects <code>MethodHandle.invokeExact</code> for API levels
+ * below 26 and <code>VarHandle</code> requires API level 33. Classes that need fast field access should use the binders generated by the annotation
+ * processor, which access the fields directly.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class RetentionPlan
+{
+	/**
+	 * The names of the base classes of RetentionMagic. They are referred to by name, so the support library classes are not loaded.
+	 */
+	private final static Set<String> BASE_CLASSES = new HashSet<String>(Arrays.asList("org.dmfs.android.retentionmagic.Activity",
+		"org.dmfs.android.retentionmagic.DialogFragment", "org.dmfs.android.retentionmagic.Fragment", "org.dmfs.android.retentionmagic.FragmentActivity",
+		"org.dmfs.android.retentionmagic.ListFragment", "org.dmfs.android.retentionmagic.SupportDialogFragment",
+		"org.dmfs.android.retentionmagic.SupportFragment", "org.dmfs.android.retentionmagic.SupportListFragment"));
+
+	/**
+	 * The class this plan belongs to.
+	 */
+	final Class<?> type;
+
+	/**
+	 * The retainable fields, made accessible.
+	 */
+	final Field[] fields;
+
+	/**
+	 * The {@link PersistenceHelper}s of the fields in {@link #fields}.
+	 */
+	final PersistenceHelper[] helpers;
+
+	/**
+	 * The keys of the fields in {@link #fields}.
+	 */
+	final String[] keys;
+
+	/**
+	 * The fields of {@link #fields} grouped by type, see {@link FieldGroups}.
+	 */
+	private final FieldGroups stateGroups;
+
+	/**
+	 * The fields to initialize from the extras or arguments, made accessible.
+	 */
+	final Field[] parameterFields;
+
+	/**
+	 * The {@link PersistenceHelper}s of the fields in {@link #parameterFields}.
+	 */
+	final PersistenceHelper[] parameterHelpers;
+
+	/**
+	 * The keys of the fields in {@link #parameterFields}.
+	 */
+	final String[] parameterKeys;
+
+	/**
+	 * The fields of {@link #parameterFields} grouped by type, see {@link FieldGroups}.
+	 */
+	private final FieldGroups parameterGroups;
+
+	/**
+	 * The permanent fields, made accessible. These are also contained in {@link #fields}.
+	 */
+	final Field[] permanentFields;
+
+	/**
+	 * The {@link PersistenceHelper}s of the fields in {@link #permanentFields}.
+	 */
+	final PersistenceHelper[] permanentHelpers;
+
+	/**
+	 * The keys of the fields in {@link #permanentFields}. If the name spaces of a field don't depend on the instance, this is the complete key including all
+	 * name spaces, otherwise it's the key without name spaces.
+	 */
+	final String[] permanentKeys;
+
+	/**
+	 * The resolved class name space prefixes (including the trailing ".") of the fields in {@link #permanentFields}. The value is an empty String if the
+	 * respective key in {@link #permanentKeys} already contains the class name space or if there is none. It's <code>null</code> if the class name space is
+	 * taken from a non-static <code>TAG</code> field, see {@link #tagField}.
+	 */
+	final String[] permanentClassPrefixes;
+
+	/**
+	 * The indices of the instance name space fields of the fields in {@link #permanentFields} in {@link #instanceNSFields}. The value is <code>-1</code> if
+	 * the field has no instance name space.
+	 */
+	final int[] permanentInstanceNS;
+
+	/**
+	 * The distinct instance name space fields used by the permanent fields, made accessible. Each of them is evaluated at most once per
+	 * {@link #init(Object, SharedPreferences)} or {@link #persist(Object, SharedPreferences.Editor)}.
+	 */
+	private final Field[] instanceNSFields;
+
+	/**
+	 * Whether any key in {@link #permanentKeys} depends on the instance.
+	 */
+	private final boolean instanceKeys;
+
+	/**
+	 * The non-static <code>TAG</code> field of the class, made accessible, or <code>null</code>. A static <code>TAG</code> is resolved when the plan is built.
+	 */
+	private final Field tagField;
+
+
+	private RetentionPlan(Class<?> type, List<Field> fields, List<PersistenceHelper> helpers, List<String> keys, List<Field> parameterFields,
+		List<PersistenceHelper> parameterHelpers, List<String> parameterKeys, List<Field> permanentFields, List<PersistenceHelper> permanentHelpers,
+		List<String> permanentKeys, List<String> permanentClassPrefixes, List<String> permanentInstanceNS, Field tagField)
+	{
+		this.type = type;
+		this.fields = fields.toArray(new Field[fields.size()]);
+		this.helpers = helpers.toArray(new PersistenceHelper[helpers.size()]);
+		this.keys = keys.toArray(new String[keys.size()]);
+		this.stateGroups = new FieldGroups(fields, helpers, keys);
+		this.parameterFields = parameterFields.toArray(new Field[parameterFields.size()]);
+		this.parameterHelpers = parameterHelpers.toArray(new PersistenceHelper[parameterHelpers.size()]);
+		this.parameterKeys = parameterKeys.toArray(new String[parameterKeys.size()]);
+		this.parameterGroups = new FieldGroups(parameterFields, parameterHelpers, parameterKeys);
+		this.permanentFields = permanentFields.toArray(new Field[permanentFields.size()]);
+		this.permanentHelpers = permanentHelpers.toArray(new PersistenceHelper[permanentHelpers.size()]);
+		this.permanentKeys = permanentKeys.toArray(new String[permanentKeys.size()]);
+		this.permanentClassPrefixes = permanentClassPrefixes.toArray(new String[permanentClassPrefixes.size()]);
+		this.tagField = tagField;
+
+		// resolve each instance name space field once, fields that don't exist are ignored, but the class name space still applies
+		List<String> instanceNSNames = new ArrayList<String>();
+		List<Field> instanceNSFields = new ArrayList<Field>();
+		this.permanentInstanceNS = new int[permanentInstanceNS.size()];
+		boolean instanceKeys = tagField != null;
+		for (int i = 0, count = permanentInstanceNS.size(); i < count; ++i)
+		{
+			String name = permanentInstanceNS.get(i);
+			int index = name == null ? -1 : instanceNSNames.indexOf(name);
+			if (name != null && index < 0)
+			{
+				Field field = findField(type, name);
+				if (field != null)
+				{
+					field.setAccessible(true);
+					index = instanceNSFields.size();
+					instanceNSNames.add(name);
+					instanceNSFields.add(field);
+				}
+				else if (this.permanentClassPrefixes[i] != null)
+				{
+					// the key doesn't depend on the instance after all, complete it right away
+					this.permanentKeys[i] = this.permanentClassPrefixes[i].concat(this.permanentKeys[i]);
+					this.permanentClassPrefixes[i] = "";
+				}
+			}
+			this.permanentInstanceNS[i] = index;
+			instanceKeys |= index >= 0;
+		}
+		this.instanceNSFields = instanceNSFields.toArray(new Field[instanceNSFields.size()]);
+		this.instanceKeys = instanceKeys;
+	}
+
+
+	/**
+	 * Build the {@link RetentionPlan} of the given class.
+	 * 
+	 * @param classInstance
+	 *            The class.
+	 * @return The {@link RetentionPlan}.
+	 * @throws UnsupportedOperationException
+	 *             if the class or one of its superclasses contains a retainable or parameter field of an unsupported type or if two retainable fields use
+	 *             the same key.
+	 */
+	static RetentionPlan build(final Class<?> classInstance)
+	{
+		List<Field> fields = new ArrayList<Field>();
+		List<PersistenceHelper> helpers = new ArrayList<PersistenceHelper>();
+		List<String> keys = new ArrayList<String>();
+		List<Field> parameterFields = new ArrayList<Field>();
+		List<PersistenceHelper> parameterHelpers = new ArrayList<PersistenceHelper>();
+		List<String> parameterKeys = new ArrayList<String>();
+		List<Field> permanentFields = new ArrayList<Field>();
+		List<PersistenceHelper> permanentHelpers = new ArrayList<PersistenceHelper>();
+		List<String> permanentKeys = new ArrayList<String>();
+		List<String> permanentClassPrefixes = new ArrayList<String>();
+		List<String> permanentInstanceNS = new ArrayList<String>();
+
+		// the TAG of the class, it's resolved when the first field needs it
+		boolean tagResolved = false;
+		Field tagField = null;
+		String tagPrefix = null;
+
+		// the retainable fields by key, to detect fields that would overwrite each other in the Bundle
+		Map<String, Field> fieldsByKey = new HashMap<String, Field>();
+
+		for (Class<?> declaringClass = classInstance; declaringClass != null && !isBaseClass(declaringClass); declaringClass = declaringClass
+			.getSuperclass())
+		{
+			for (Field field : declaringClass.getDeclaredFields())
+			{
+				RetainWith retainWith = field.getAnnotation(RetainWith.class);
+				PersistenceHelper codecHelper = retainWith == null ? null : PersistenceHelpers.getCodecHelper(retainWith.value());
+
+				Retain retain = field.getAnnotation(Retain.class);
+				if (retain != null && (codecHelper != null || !ArrayList.class.isAssignableFrom(field.getType())))
+				{
+					PersistenceHelper helper = codecHelper != null ? codecHelper : PersistenceHelpers.getHelper(field.getType());
+					if (helper == null)
+					{
+						throw new UnsupportedOperationException("field of class " + field.getType().getCanonicalName() + " not supported");
+					}
+					if (codecHelper != null && retain.permanent())
+					{
+						throw new UnsupportedOperationException("@RetainWith does not support permanent fields");
+					}
+
+					field.setAccessible(true);
+					fields.add(field);
+					helpers.add(helper);
+					keys.add(checkKey(fieldsByKey, field, key(field, retain.key())));
+
+					if (retain.permanent())
+					{
+						permanentFields.add(field);
+						permanentHelpers.add(helper);
+
+						String classNS = retain.classNS();
+						String classPrefix;
+						if (classNS == null || classNS.length() == 0)
+						{
+							classPrefix = "";
+						}
+						else if (".".equals(classNS))
+						{
+							if (!tagResolved)
+							{
+								tagField = tagField(classInstance);
+								if (tagField == null || Modifier.isStatic(tagField.getModifiers()))
+								{
+									tagPrefix = tagPrefix(classInstance, tagField, null);
+									tagField = null;
+								}
+								tagResolved = true;
+							}
+							// null if the TAG depends on the instance
+							classPrefix = tagPrefix;
+						}
+						else
+						{
+							classPrefix = classNS + ".";
+						}
+
+						String instanceNS = retain.instanceNSField();
+						if ((instanceNS == null || instanceNS.length() == 0) && classPrefix != null)
+						{
+							// the key doesn't depend on the instance, so we can build the complete key right away
+							permanentKeys.add(classPrefix + key(field, retain.key()));
+							permanentClassPrefixes.add("");
+							permanentInstanceNS.add(null);
+						}
+						else
+						{
+							permanentKeys.add(key(field, retain.key()));
+							permanentClassPrefixes.add(classPrefix);
+							permanentInstanceNS.add(instanceNS == null || instanceNS.length() == 0 ? null : instanceNS);
+						}
+					}
+				}
+				else if (retain != null)
+				{
+					throw new UnsupportedOperationException("@Retain does not support ArrayLists, use @RetainArrayList instead");
+				}
+				else
+				{
+					RetainArrayList retainList = field.getAnnotation(RetainArrayList.class);
+					if (retainList != null && ArrayList.class.isAssignableFrom(field.getType()))
+					{
+						PersistenceHelper helper = PersistenceHelpers.getArrayListHelper(retainList.genericType());
+						if (helper == null)
+						{
+							throw new UnsupportedOperationException("list with generic type of " + field.getType().getCanonicalName() + " not supported");
+						}
+
+						field.setAccessible(true);
+						fields.add(field);
+						helpers.add(helper);
+						keys.add(checkKey(fieldsByKey, field, key(field, retainList.key())));
+					}
+					else if (retainList != null)
+					{
+						throw new UnsupportedOperationException("@RetainArrayList supports only ArrayList fields, use @Retain instead");
+					}
+				}
+
+				Parameter param = field.getAnnotation(Parameter.class);
+				if (param != null && (codecHelper != null || !ArrayList.class.isAssignableFrom(field.getType())))
+				{
+					PersistenceHelper helper = codecHelper != null ? codecHelper : PersistenceHelpers.getHelper(field.getType());
+					if (helper == null)
+					{
+						throw new UnsupportedOperationException("field of class " + field.getType().getCanonicalName()
+							+ " not supported for initialization from a Bundle");
+					}
+
+					field.setAccessible(true);
+					parameterFields.add(field);
+					parameterHelpers.add(helper);
+					parameterKeys.add(key(field, param.key()));
+				}
+				else if (param != null)
+				{
+					throw new UnsupportedOperationException("@Parameter does not support ArrayLists, use @ParameterArrayList instead");
+				}
+				else
+				{
+					ParameterArrayList paramList = field.getAnnotation(ParameterArrayList.class);
+					if (paramList != null && ArrayList.class.isAssignableFrom(field.getType()))
+					{
+						PersistenceHelper helper = PersistenceHelpers.getArrayListHelper(paramList.genericType());
+						if (helper == null)
+						{
+							throw new UnsupportedOperationException("list with generic type of " + field.getType().getCanonicalName() + " not supported");
+						}
+
+						field.setAccessible(true);
+						parameterFields.add(field);
+						parameterHelpers.add(helper);
+						parameterKeys.add(key(field, paramList.value()));
+					}
+					else if (paramList != null)
+					{
+						throw new UnsupportedOperationException("@ParameterArrayList supports only ArrayList fields, use @Parameter instead");
+					}
+				}
+			}
+		}
+
+		return new RetentionPlan(classInstance, fields, helpers, keys, parameterFields, parameterHelpers, parameterKeys, permanentFields, permanentHelpers,
+			permanentKeys, permanentClassPrefixes, permanentInstanceNS, tagField);
+	}
+
+
+	/**
+	 * Store all retainable fields of the given instance in a {@link Bundle}.
+	 * 
+	 * @param instance
+	 *            The instance.
+	 * @param instanceState
+	 *            The {@link Bundle} to store the state in.
+	 * @throws IllegalAccessException
+	 */
+	void store(final Object instance, final Bundle instanceState) throws IllegalAccessException
+	{
+		stateGroups.store(instance, instanceState);
+	}
+
+
+	/**
+	 * Restore all retainable fields of the given instance from a {@link Bundle}.
+	 * 
+	 * @param instance
+	 *            The instance.
+	 * @param instanceState
+	 *            The {@link Bundle} to restore the state from.
+	 * @throws IllegalAccessException
+	 */
+	void restore(final Object instance, final Bundle instanceState) throws IllegalAccessException
+	{
+		stateGroups.restore(instance, instanceState);
+	}
+
+
+	/**
+	 * Initialize all parameter fields of the given instance from the extras or arguments {@link Bundle}.
+	 * 
+	 * @param instance
+	 *            The instance.
+	 * @param arguments
+	 *            The extras or arguments {@link Bundle}.
+	 * @throws IllegalAccessException
+	 */
+	void inject(final Object instance, final Bundle arguments) throws IllegalAccessException
+	{
+		parameterGroups.restore(instance, arguments);
+	}
+
+
+	/**
+	 * Initialize all permanent fields of the given instance from the {@link SharedPreferences}.
+	 * 
+	 * @param instance
+	 *            The instance.
+	 * @param prefs
+	 *            The {@link SharedPreferences}.
+	 * @throws IllegalAccessException
+	 */
+	void init(final Object instance, final SharedPreferences prefs) throws IllegalAccessException
+	{
+		final Field[] fields = this.permanentFields;
+		final PersistenceHelper[] helpers = this.permanentHelpers;
+		final String[] keys = permanentKeys(instance);
+		for (int i = 0, count = fields.length; i < count; ++i)
+		{
+			helpers[i].restoreFromPreferences(fields[i], instance, keys[i], prefs);
+		}
+	}
+
+
+	/**
+	 * Write all permanent fields of the given instance to a {@link SharedPreferences.Editor}.
+	 * 
+	 * @param instance
+	 *            The instance.
+	 * @param editor
+	 *            The {@link SharedPreferences.Editor}.
+	 * @throws IllegalAccessException
+	 */
+	void persist(final Object instance, final SharedPreferences.Editor editor) throws IllegalAccessException
+	{
+		final Field[] fields = this.permanentFields;
+		final PersistenceHelper[] helpers = this.permanentHelpers;
+		final String[] keys = permanentKeys(instance);
+		for (int i = 0, count = fields.length; i < count; ++i)
+		{
+			helpers[i].storeInPreferences(fields[i], instance, keys[i], editor);
+		}
+	}
+
+
+	/**
+	 * Returns the keys of all permanent fields of the given instance, including all name spaces. If no key depends on the instance, that's
+	 * {@link #permanentKeys} itself. Otherwise the name spaces of the instance are evaluated once and reused for all of its fields.
+	 */
+	private String[] permanentKeys(final Object instance) throws IllegalAccessException
+	{
+		final String[] keys = this.permanentKeys;
+		if (!instanceKeys)
+		{
+			return keys;
+		}
+
+		final String[] classPrefixes = this.permanentClassPrefixes;
+		final int[] instanceNS = this.permanentInstanceNS;
+		final String[] instancePrefixes = new String[instanceNSFields.length];
+		String tagPrefix = null;
+
+		String[] result = new String[keys.length];
+		for (int i = 0, count = keys.length; i < count; ++i)
+		{
+			String classPrefix = classPrefixes[i];
+			int instanceNSIndex = instanceNS[i];
+			if (instanceNSIndex < 0 && classPrefix != null)
+			{
+				// the key is already complete
+				result[i] = keys[i];
+				continue;
+			}
+
+			if (classPrefix == null)
+			{
+				if (tagPrefix == null)
+				{
+					tagPrefix = tagPrefix(type, tagField, instance);
+				}
+				classPrefix = tagPrefix;
+			}
+
+			String instancePrefix = "";
+			if (instanceNSIndex >= 0)
+			{
+				instancePrefix = instancePrefixes[instanceNSIndex];
+				if (instancePrefix == null)
+				{
+					Object value = instanceNSFields[instanceNSIndex].get(instance);
+					instancePrefix = value == null ? "" : value.toString().concat(".");
+					instancePrefixes[instanceNSIndex] = instancePrefix;
+				}
+			}
+
+			result[i] = concat(classPrefix, instancePrefix, keys[i]);
+		}
+		return result;
+	}
+
+
+	/**
+	 * Returns the given key or the field name if the key is empty.
+	 */
+	private static String key(final Field field, final String key)
+	{
+		return key == null || key.length() == 0 ? field.getName() : key;
+	}
+
+
+	/**
+	 * Registers the key of a retainable field. Fields of the same class may use the same key (the last one wins), but fields of different classes of the
+	 * hierarchy must not, since a subclass would silently overwrite the state of its superclass.
+	 * 
+	 * @return The key.
+	 * @throws UnsupportedOperationException
+	 *             if a field of another class of the hierarchy already uses the same key.
+	 */
+	private static String checkKey(final Map<String, Field> fieldsByKey, final Field field, final String key)
+	{
+		Field other = fieldsByKey.put(key, field);
+		if (other != null && other.getDeclaringClass() != field.getDeclaringClass())
+		{
+			throw new UnsupportedOperationException("fields " + other.getDeclaringClass().getName() + "." + other.getName() + " and "
+				+ field.getDeclaringClass().getName() + "." + field.getName() + " use the same key " + key);
+		}
+		return key;
+	}
+
+
+	/**
+	 * Returns whether the given class is one of the base classes of RetentionMagic (like {@link Activity}) or a framework class. The fields of these classes
+	 * (and of their superclasses) are not considered.
+	 */
+	static boolean isBaseClass(final Class<?> classInstance)
+	{
+		String name = classInstance.getName();
+		return name.startsWith("android.") || name.startsWith("androidx.") || name.startsWith("java.") || name.startsWith("javax.")
+			|| name.startsWith("dalvik.") || name.startsWith("kotlin.") || BASE_CLASSES.contains(name);
+	}
+
+
+	/**
+	 * Returns the field with the given name of the given class or of one of its superclasses (up to the base classes) or <code>null</code> if there is no such
+	 * field.
+	 */
+	private static Field findField(final Class<?> classType, final String name)
+	{
+		for (Class<?> declaringClass = classType; declaringClass != null && !isBaseClass(declaringClass); declaringClass = declaringClass.getSuperclass())
+		{
+			try
+			{
+				return declaringClass.getDeclaredField(name);
+			}
+			catch (NoSuchFieldException e)
+			{
+				// try the superclass
+			}
+			catch (SecurityException e)
+			{
+				return null;
+			}
+		}
+		return null;
+	}
+
+
+	/**
+	 * Returns the <code>TAG</code> field of the given class, made accessible, or <code>null</code> if there is no such field.
+	 */
+	private static Field tagField(final Class<?> classType)
+	{
+		try
+		{
+			Field tagField = classType.getDeclaredField("TAG");
+			tagField.setAccessible(true);
+			return tagField;
+		}
+		catch (NoSuchFieldException e)
+		{
+			return null;
+		}
+		catch (SecurityException e)
+		{
+			return null;
+		}
+	}
+
+
+	/**
+	 * Returns the class name space prefix (including the trailing ".") for the default <code>classNS</code> ".". That's the value of the <code>TAG</code>
+	 * field or the canonical class name if there is no <code>TAG</code>.
+	 * 
+	 * @param classType
+	 *            The class.
+	 * @param tagField
+	 *            The <code>TAG</code> field of the class or <code>null</code>.
+	 * @param instance
+	 *            The instance, may be <code>null</code> if the <code>TAG</code> field is static.
+	 */
+	private static String tagPrefix(final Class<?> classType, final Field tagField, final Object instance)
+	{
+		if (tagField != null)
+		{
+			try
+			{
+				Object tag = tagField.get(instance);
+				if (tag != null)
+				{
+					return tag.toString().concat(".");
+				}
+			}
+			catch (IllegalAccessException e)
+			{
+				// fall back to the class name
+			}
+		}
+		return classType.getCanonicalName() + ".";
+	}
+
+
+	/**
+	 * Concatenates the given name space prefixes and the key. Allocates only the resulting String (and its buffer).
+	 */
+	private static String concat(final String classPrefix, final String instancePrefix, final String key)
+	{
+		return new StringBuilder(classPrefix.length() + instancePrefix.length() + key.length()).append(classPrefix).append(instancePrefix).append(key)
+			.toString();
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+
+/**
+ * A {@link PersistenceBackend} that stores the permanent fields in regular {@link SharedPreferences}.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class SharedPreferencesBackend implements PersistenceBackend
+{
+	@Override
+	public SharedPreferences getPreferences(final Context context, final String name)
+	{
+		return context.getSharedPreferences(name, 0);
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic;
+
+import android.os.Bundle;
+
+
+/**
+ * Stores and restores the retainable fields of a specific class without reflection.
+ * <p>
+ * Implementations are generated at compile time by the RetentionMagic annotation processor. For a class <code>com.example.DemoActivity</code> the processor
+ * generates <code>com.example.DemoActivity_StateBinder</code>, which is picked up by {@link RetentionMagic} automatically. You should not implement this
+ * interface yourself.
+ * </p>
+ * 
+ * @param <T>
+ *            The type of the class that contains the retainable fields.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public interface StateBinder<T>
+{
+	/**
+	 * Store all retainable fields of the given instance in a {@link Bundle}.
+	 * 
+	 * @param instance
+	 *            The instance to store.
+	 * @param instanceState
+	 *            The {@link Bundle} to store the state in.
+	 */
+	public void store(T instance, Bundle instanceState);
+
+
+	/**
+	 * Restore all retainable fields of the given instance from a {@link Bundle}.
+	 * 
+	 * @param instance
+	 *            The instance to restore.
+	 * @param instanceState
+	 *            The {@link Bundle} to restore the state from.
+	 */
+	public void restore(T instance, Bundle instanceState);
+}
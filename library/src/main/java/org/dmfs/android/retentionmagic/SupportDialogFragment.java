@@ -49,7 +49,7 @@ public class SupportDialogFragment extends android.support.v4.app.DialogFragment
 		super.onCreate(savedInstanceState);
 
 		FragmentActivity activity = getActivity();
-		mPrefs = activity.getSharedPreferences(activity.getPackageName() + ".sharedPrefences", 0);
+		mPrefs = RetentionMagic.getPreferences(activity);
 
 		if (savedInstanceState == null)
 		{
@@ -49,7 +49,7 @@ public class SupportListFragment extends android.support.v4.app.ListFragment
 		super.onCreate(savedInstanceState);
 
 		FragmentActivity activity = getActivity();
-		mPrefs = activity.getSharedPreferences(activity.getPackageName() + ".sharedPrefences", 0);
+		mPrefs = RetentionMagic.getPreferences(activity);
 
 		if (savedInstanceState == null)
 		{
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic;
+
+import java.lang.ref.WeakReference;
+
+
+/**
+ * A thread safe cache that maps classes to values, like {@link CopyOnWriteCache}, but holds the classes weakly, so it doesn't keep classes (and their class
+ * loaders) from being unloaded. Values that refer to the class of their key keep it alive nonetheless, store them in a {@link WeakReference} if that's the
+ * case.
+ * <p>
+ * Reads never block and don't allocate. The cache publishes immutable tables via a volatile field, each write copies the live entries of the current table
+ * into a new one and publishes it. Entries of classes that have been unloaded are dropped on the next write.
+ * </p>
+ * 
+ * @param <V>
+ *            The type of the values.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class WeakClassCache<V>
+{
+	private final static Table EMPTY = new Table(2);
+
+	/**
+	 * The current table. It's never modified after it has been published.
+	 */
+	private volatile Table mTable = EMPTY;
+
+
+	/**
+	 * Returns the value of the given class. This never blocks.
+	 * 
+	 * @param key
+	 *            The class.
+	 * @return The value or <code>null</code> if the cache doesn't contain the class.
+	 */
+	@SuppressWarnings("unchecked")
+	V get(final Class<?> key)
+	{
+		final Table table = mTable;
+		final WeakReference<Class<?>>[] keys = table.keys;
+		final int mask = keys.length - 1;
+		for (int i = index(key, mask);; i = (i + 1) & mask)
+		{
+			WeakReference<Class<?>> candidate = keys[i];
+			if (candidate == null)
+			{
+				return null;
+			}
+			if (candidate.get() == key)
+			{
+				return (V) table.values[i];
+			}
+		}
+	}
+
+
+	/**
+	 * Returns whether this cache is empty. This never blocks.
+	 */
+	boolean isEmpty()
+	{
+		return mTable.size == 0;
+	}
+
+
+	/**
+	 * Adds the given value unless the cache already contains a value for the class.
+	 * 
+	 * @param key
+	 *            The class.
+	 * @param value
+	 *            The value.
+	 * @return The value in the cache, which is the given value or the value that has been added by another thread before.
+	 */
+	synchronized V putIfAbsent(final Class<?> key, final V value)
+	{
+		V current = get(key);
+		if (current != null)
+		{
+			return current;
+		}
+		put(key, value);
+		return value;
+	}
+
+
+	/**
+	 * Adds or replaces the value of the given class.
+	 * 
+	 * @param key
+	 *            The class.
+	 * @param value
+	 *            The value.
+	 */
+	synchronized void put(final Class<?> key, final V value)
+	{
+		mTable = copy(key, value);
+	}
+
+
+	/**
+	 * Removes the value of the given class.
+	 * 
+	 * @param key
+	 *            The class.
+	 */
+	synchronized void remove(final Class<?> key)
+	{
+		if (get(key) != null)
+		{
+			mTable = copy(key, null);
+		}
+	}
+
+
+	/**
+	 * Returns a copy of the current table with the given change. Entries of unloaded classes are dropped.
+	 * 
+	 * @param key
+	 *            The class to change.
+	 * @param value
+	 *            The new value or <code>null</code> to remove the class.
+	 */
+	private Table copy(final Class<?> key, final V value)
+	{
+		final Table table = mTable;
+		final WeakReference<Class<?>>[] keys = table.keys;
+
+		// the number of live entries is at most the current size plus one, keep the load factor at or below 0.5
+		int capacity = 2;
+		while (capacity < (table.size + 1) * 2)
+		{
+			capacity <<= 1;
+		}
+
+		Table result = new Table(capacity);
+		for (int i = 0, count = keys.length; i < count; ++i)
+		{
+			WeakReference<Class<?>> reference = keys[i];
+			Class<?> current = reference == null ? null : reference.get();
+			if (current != null && current != key)
+			{
+				result.add(reference, table.values[i]);
+			}
+		}
+		if (value != null)
+		{
+			result.add(new WeakReference<Class<?>>(key), value);
+		}
+		return result;
+	}
+
+
+	private static int index(final Class<?> key, final int mask)
+	{
+		int hash = System.identityHashCode(key);
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+
+	/**
+	 * An open addressing hash table with linear probing. The capacity is a power of two.
+	 */
+	private final static class Table
+	{
+		final WeakReference<Class<?>>[] keys;
+
+		final Object[] values;
+
+		int size;
+
+
+		@SuppressWarnings("unchecked")
+		Table(final int capacity)
+		{
+			keys = new WeakReference[capacity];
+			values = new Object[capacity];
+		}
+
+
+		/**
+		 * Adds an entry, this must be called only before the table is published.
+		 */
+		void add(final WeakReference<Class<?>> key, final Object value)
+		{
+			final int mask = keys.length - 1;
+			int i = index(key.get(), mask);
+			while (keys[i] != null)
+			{
+				i = (i + 1) & mask;
+			}
+			keys[i] = key;
+			values[i] = value;
+			++size;
+		}
+	}
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import org.dmfs.android.retentionmagic.RetentionCodec;
+import org.dmfs.android.retentionmagic.RetentionMagic;
+
+
+/**
+ * Store a {@link Retain} or {@link Parameter} field with a specific {@link RetentionCodec} instead of the built-in type support. Use this for types that are
+ * not supported by {@link android.os.Bundle} or to replace slow {@link java.io.Serializable} encoding by a hand-written one, like so:
+ * 
+ * <pre>
+ * 	{@literal @}Retain
+ * 	{@literal @}RetainWith(PointCodec.class)
+ * 	Point mPosition;
+ * </pre>
+ * <p>
+ * The codec is resolved once per class. If a codec instance has been registered with {@link RetentionMagic#registerCodec(RetentionCodec)} that instance is
+ * used, otherwise the codec is created with its public no-argument constructor.
+ * </p>
+ * <p>
+ * Codecs can't be used for permanent fields. Since the annotation processor doesn't generate binders for fields with codecs, classes with such fields are
+ * always handled via reflection.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.FIELD })
+public @interface RetainWith {
+	/**
+	 * The class of the {@link RetentionCodec} to store and restore the field with.
+	 */
+	@SuppressWarnings("rawtypes")
+	Class<? extends RetentionCodec> value();
+}
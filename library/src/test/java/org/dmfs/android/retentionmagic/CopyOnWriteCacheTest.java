@@ -0,0 +1,101 @@
+package org.dmfs.android.retentionmagic;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Tests {@link CopyOnWriteCache}.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public class CopyOnWriteCacheTest
+{
+    @Test
+    public void putIfAbsentKeepsFirstValue() throws Exception
+    {
+        CopyOnWriteCache<String, Object> cache = new CopyOnWriteCache<String, Object>();
+        Object first = new Object();
+
+        assertTrue(cache.isEmpty());
+        assertSame(first, cache.putIfAbsent("key", first));
+        assertSame(first, cache.putIfAbsent("key", new Object()));
+        assertSame(first, cache.get("key"));
+
+        cache.remove("key");
+        assertNull(cache.get("key"));
+        assertTrue(cache.isEmpty());
+    }
+
+
+    @Test
+    public void concurrentWriters() throws Exception
+    {
+        final CopyOnWriteCache<Integer, Object> cache = new CopyOnWriteCache<Integer, Object>();
+        final int threadCount = 8;
+        final int keyCount = 500;
+        final Object[][] results = new Object[threadCount][keyCount];
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+
+        for (int t = 0; t < threadCount; ++t)
+        {
+            final int thread = t;
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                    for (int key = 0; key < keyCount; ++key)
+                    {
+                        results[thread][key] = cache.putIfAbsent(key, new Object());
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        // all threads must see the same value for each key and no write must get lost
+        for (int key = 0; key < keyCount; ++key)
+        {
+            for (int t = 0; t < threadCount; ++t)
+            {
+                assertSame(cache.get(key), results[t][key]);
+            }
+        }
+        assertEquals(keyCount, countKeys(cache, keyCount));
+    }
+
+
+    private static int countKeys(CopyOnWriteCache<Integer, Object> cache, int keyCount)
+    {
+        int result = 0;
+        for (int key = 0; key < keyCount; ++key)
+        {
+            if (cache.get(key) != null)
+            {
+                ++result;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,106 @@
+package org.dmfs.android.retentionmagic;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import android.content.SharedPreferences;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Tests {@link DiffingEditor}.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public class DiffingEditorTest
+{
+    @Test
+    public void skipsUnchangedValues() throws IOException
+    {
+        SharedPreferences prefs = newPreferences();
+        prefs.edit()
+                .putInt("int", 1)
+                .putLong("long", 2L)
+                .putFloat("float", 3f)
+                .putBoolean("boolean", true)
+                .putString("string", "four")
+                .putStringSet("set", new HashSet<String>(Arrays.asList("five")))
+                .commit();
+
+        DiffingEditor editor = new DiffingEditor(prefs);
+        editor.putInt("int", 1)
+                .putLong("long", 2L)
+                .putFloat("float", 3f)
+                .putBoolean("boolean", true)
+                .putString("string", "four")
+                .putStringSet("set", new HashSet<String>(Arrays.asList("five")))
+                .putString("missing", null)
+                .remove("missing");
+
+        assertFalse(editor.hasChanges());
+    }
+
+
+    @Test
+    public void writesChangedValues() throws IOException
+    {
+        SharedPreferences prefs = newPreferences();
+        prefs.edit().putInt("int", 1).putString("string", "two").putString("other", "three").commit();
+
+        DiffingEditor editor = new DiffingEditor(prefs);
+        editor.putInt("int", 1).putString("string", "changed").putString("other", null).putBoolean("new", false);
+        assertTrue(editor.hasChanges());
+        editor.commit();
+
+        assertEquals(1, prefs.getInt("int", 0));
+        assertEquals("changed", prefs.getString("string", null));
+        assertFalse(prefs.contains("other"));
+        assertTrue(prefs.contains("new"));
+    }
+
+
+    @Test
+    public void writesValuesOfChangedType() throws IOException
+    {
+        SharedPreferences prefs = newPreferences();
+        prefs.edit().putString("value", "1").commit();
+
+        DiffingEditor editor = new DiffingEditor(prefs);
+        editor.putInt("value", 1);
+        assertTrue(editor.hasChanges());
+        editor.commit();
+
+        assertEquals(1, prefs.getInt("value", 0));
+    }
+
+
+    @Test
+    public void keepsTheLastValueOfAKey() throws IOException
+    {
+        SharedPreferences prefs = newPreferences();
+        prefs.edit().putInt("int", 1).commit();
+
+        // two instances writing the same key, the second one writes the stored value again
+        DiffingEditor editor = new DiffingEditor(prefs);
+        editor.putInt("int", 2).putInt("int", 1);
+        editor.commit();
+
+        assertEquals(1, prefs.getInt("int", 0));
+    }
+
+
+    private static SharedPreferences newPreferences() throws IOException
+    {
+        File file = File.createTempFile("diffing", ".prefs");
+        file.delete();
+        file.deleteOnExit();
+        return new MappedPreferences(file);
+    }
+}
@@ -0,0 +1,163 @@
+package org.dmfs.android.retentionmagic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import android.content.SharedPreferences;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Tests {@link MappedPreferences}.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public class MappedPreferencesTest
+{
+    @Test
+    public void keepsValuesAcrossReopen() throws IOException
+    {
+        File file = newFile();
+        new MappedPreferences(file).edit()
+                .putInt("int", 1)
+                .putLong("long", 2L)
+                .putFloat("float", 3f)
+                .putBoolean("boolean", true)
+                .putString("string", "four")
+                .putStringSet("set", new HashSet<String>(Arrays.asList("five", "six")))
+                .commit();
+
+        SharedPreferences prefs = new MappedPreferences(file);
+        assertEquals(1, prefs.getInt("int", 0));
+        assertEquals(2L, prefs.getLong("long", 0));
+        assertEquals(3f, prefs.getFloat("float", 0), 0);
+        assertTrue(prefs.getBoolean("boolean", false));
+        assertEquals("four", prefs.getString("string", null));
+        assertEquals(new HashSet<String>(Arrays.asList("five", "six")), prefs.getStringSet("set", null));
+        assertEquals(6, prefs.getAll().size());
+    }
+
+
+    @Test
+    public void keepsCommittedValuesAfterClose() throws IOException
+    {
+        File file = newFile();
+        File migrationFile = new File(file.getPath() + ".migration");
+        MappedPreferences prefs = new MappedPreferences(migrationFile);
+        prefs.edit().putInt("int", 1).putString("string", "two").commit();
+        prefs.close();
+
+        // that's what MappedPreferencesBackend does after a migration
+        assertTrue(migrationFile.renameTo(file));
+
+        SharedPreferences reopened = new MappedPreferences(file);
+        assertEquals(1, reopened.getInt("int", 0));
+        assertEquals("two", reopened.getString("string", null));
+        assertEquals(2, reopened.getAll().size());
+    }
+
+
+    @Test
+    public void updatesFixedSizeValuesInPlace() throws IOException
+    {
+        File file = newFile();
+        MappedPreferences prefs = new MappedPreferences(file);
+        prefs.edit().putInt("int", 1).putBoolean("boolean", false).commit();
+        int size = prefs.logSize();
+
+        for (int i = 2; i < 100; ++i)
+        {
+            prefs.edit().putInt("int", i).putBoolean("boolean", i % 2 == 0).commit();
+        }
+
+        assertEquals(size, prefs.logSize());
+        SharedPreferences reopened = new MappedPreferences(file);
+        assertEquals(99, reopened.getInt("int", 0));
+        assertFalse(reopened.getBoolean("boolean", true));
+    }
+
+
+    @Test
+    public void compactsWhenFull() throws IOException
+    {
+        File file = newFile();
+        MappedPreferences prefs = new MappedPreferences(file);
+        // strings are appended on every change, so this exceeds the initial capacity many times
+        for (int i = 0; i < 5000; ++i)
+        {
+            prefs.edit().putString("string", "value " + i).apply();
+        }
+
+        // without compaction the log would have grown to about 100 KB
+        assertEquals(16 * 1024, file.length());
+        assertEquals("value 4999", new MappedPreferences(file).getString("string", null));
+    }
+
+
+    @Test
+    public void removesValues() throws IOException
+    {
+        File file = newFile();
+        MappedPreferences prefs = new MappedPreferences(file);
+        prefs.edit().putInt("a", 1).putString("b", "b").putString("c", "c").commit();
+        prefs.edit().remove("a").putString("b", null).commit();
+
+        SharedPreferences reopened = new MappedPreferences(file);
+        assertFalse(reopened.contains("a"));
+        assertFalse(reopened.contains("b"));
+        assertEquals("c", reopened.getString("c", null));
+
+        prefs.edit().clear().putInt("d", 4).commit();
+        reopened = new MappedPreferences(file);
+        assertEquals(1, reopened.getAll().size());
+        assertEquals(4, reopened.getInt("d", 0));
+    }
+
+
+    @Test
+    public void ignoresUnfinishedRecords() throws IOException
+    {
+        File file = newFile();
+        MappedPreferences prefs = new MappedPreferences(file);
+        prefs.edit().putString("a", "a").commit();
+        int size = prefs.logSize();
+        prefs.edit().putString("b", "b").commit();
+
+        // reset the type of the record of "b", like an append that has been interrupted before the record was completed
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            raf.seek(size);
+            raf.write(0);
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        MappedPreferences reopened = new MappedPreferences(file);
+        assertEquals("a", reopened.getString("a", null));
+        assertFalse(reopened.contains("b"));
+
+        // the log continues after the last complete record
+        reopened.edit().putString("c", "c").commit();
+        assertEquals("c", new MappedPreferences(file).getString("c", null));
+    }
+
+
+    private static File newFile() throws IOException
+    {
+        File file = File.createTempFile("mapped", ".prefs");
+        file.delete();
+        file.deleteOnExit();
+        return file;
+    }
+}
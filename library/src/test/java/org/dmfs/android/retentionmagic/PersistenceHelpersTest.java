@@ -0,0 +1,79 @@
+package org.dmfs.android.retentionmagic;
+
+import android.os.Parcelable;
+
+import java.io.Serializable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+
+/**
+ * Tests the resolution order of {@link PersistenceHelpers}.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public class PersistenceHelpersTest
+{
+    @Test
+    public void parcelableWinsOverSerializable() throws Exception
+    {
+        assertSame(PersistenceHelpers.getHelper(Parcelable.class), PersistenceHelpers.getHelper(ParcelableSerializable.class));
+        assertNotSame(PersistenceHelpers.getHelper(Serializable.class), PersistenceHelpers.getHelper(ParcelableSerializable.class));
+    }
+
+
+    @Test
+    public void charSequenceWinsOverSerializable() throws Exception
+    {
+        assertSame(PersistenceHelpers.getHelper(CharSequence.class), PersistenceHelpers.getHelper(SerializableText.class));
+    }
+
+
+    @Test
+    public void parcelableWinsOverCharSequence() throws Exception
+    {
+        assertSame(PersistenceHelpers.getHelper(Parcelable.class), PersistenceHelpers.getHelper(ParcelableText.class));
+        assertSame(PersistenceHelpers.getArrayListHelper(Parcelable.class), PersistenceHelpers.getArrayListHelper(ParcelableText.class));
+    }
+
+
+    @Test
+    public void resolutionIsStable() throws Exception
+    {
+        assertSame(PersistenceHelpers.getHelper(ParcelableSerializable.class), PersistenceHelpers.getHelper(ParcelableSerializable.class));
+        assertSame(PersistenceHelpers.getHelper(int.class), PersistenceHelpers.getHelper(int.class));
+    }
+
+
+    @Test
+    public void cachedHelperDoesNotCreateHelpers() throws Exception
+    {
+        assertNull(PersistenceHelpers.getCachedHelper(UnresolvedSerializable.class));
+        assertNull(PersistenceHelpers.getCachedHelper(UnresolvedSerializable.class));
+        assertSame(PersistenceHelpers.getHelper(UnresolvedSerializable.class), PersistenceHelpers.getCachedHelper(UnresolvedSerializable.class));
+    }
+
+
+    private static abstract class ParcelableSerializable implements Parcelable, Serializable
+    {
+    }
+
+
+    private static abstract class SerializableText implements CharSequence, Serializable
+    {
+    }
+
+
+    private static abstract class ParcelableText implements CharSequence, Parcelable
+    {
+    }
+
+
+    private static abstract class UnresolvedSerializable implements Serializable
+    {
+    }
+}
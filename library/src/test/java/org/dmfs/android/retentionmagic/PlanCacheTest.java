@@ -0,0 +1,93 @@
+package org.dmfs.android.retentionmagic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+
+/**
+ * Tests {@link PlanCache}.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public class PlanCacheTest
+{
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception
+    {
+        PlanCache cache = new PlanCache();
+        cache.setMaxSize(2);
+        cache.setStatsEnabled(true);
+
+        RetentionPlan a = RetentionPlan.build(A.class);
+        cache.putIfAbsent(A.class, a);
+        Thread.sleep(1);
+        cache.putIfAbsent(B.class, RetentionPlan.build(B.class));
+        Thread.sleep(1);
+        assertSame(a, cache.get(A.class));
+        Thread.sleep(1);
+        cache.putIfAbsent(C.class, RetentionPlan.build(C.class));
+
+        assertNotNull(cache.get(A.class));
+        assertNull(cache.get(B.class));
+        assertNotNull(cache.get(C.class));
+
+        PlanCacheStats stats = cache.stats();
+        assertEquals(3, stats.hitCount());
+        assertEquals(1, stats.missCount());
+        assertEquals(1, stats.evictionCount());
+        assertEquals(2, stats.size());
+        assertEquals(2, stats.maxSize());
+    }
+
+
+    @Test
+    public void countsOnlyIfEnabled() throws Exception
+    {
+        PlanCache cache = new PlanCache();
+        cache.putIfAbsent(A.class, RetentionPlan.build(A.class));
+        cache.get(A.class);
+        cache.get(B.class);
+        assertEquals(0, cache.stats().hitCount());
+        assertEquals(0, cache.stats().missCount());
+
+        cache.setStatsEnabled(true);
+        cache.get(A.class);
+        cache.get(B.class);
+        assertEquals(1, cache.stats().hitCount());
+        assertEquals(1, cache.stats().missCount());
+    }
+
+
+    @Test
+    public void shrink() throws Exception
+    {
+        PlanCache cache = new PlanCache();
+        cache.putIfAbsent(A.class, RetentionPlan.build(A.class));
+        cache.putIfAbsent(B.class, RetentionPlan.build(B.class));
+        cache.putIfAbsent(C.class, RetentionPlan.build(C.class));
+        assertEquals(3, cache.stats().size());
+
+        cache.setMaxSize(1);
+        assertEquals(1, cache.stats().size());
+        assertEquals(2, cache.stats().evictionCount());
+    }
+
+
+    private static class A
+    {
+    }
+
+
+    private static class B
+    {
+    }
+
+
+    private static class C
+    {
+    }
+}
@@ -0,0 +1,159 @@
+package org.dmfs.android.retentionmagic;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.dmfs.android.retentionmagic.annotations.Parameter;
+import org.dmfs.android.retentionmagic.annotations.Retain;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Tests {@link RetentionPlan}.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public class RetentionPlanTest
+{
+    @Test
+    public void includesSuperclassFields()
+    {
+        RetentionPlan plan = RetentionPlan.build(Child.class);
+
+        assertEquals(new HashSet<String>(Arrays.asList("mBase", "mChild")), new HashSet<String>(Arrays.asList(plan.keys)));
+        assertEquals(1, plan.parameterFields.length);
+        assertEquals(Base.class, plan.parameterFields[0].getDeclaringClass());
+    }
+
+
+    @Test
+    public void detectsCollisions()
+    {
+        try
+        {
+            RetentionPlan.build(Colliding.class);
+            fail("key collision not detected");
+        }
+        catch (UnsupportedOperationException e)
+        {
+            assertTrue(e.getMessage(), e.getMessage().contains("mBase"));
+        }
+    }
+
+
+    @Test
+    public void toleratesDuplicatesInTheSameClass()
+    {
+        RetentionPlan plan = RetentionPlan.build(Duplicates.class);
+        assertEquals(Arrays.asList("key", "key"), Arrays.asList(plan.keys));
+    }
+
+
+    @Test
+    public void resolvesClassNameSpaceOnce()
+    {
+        RetentionPlan plan = RetentionPlan.build(Tagged.class);
+        assertEquals("tagged.mValue", plan.permanentKeys[0]);
+
+        plan = RetentionPlan.build(Untagged.class);
+        assertEquals(Untagged.class.getCanonicalName() + ".mValue", plan.permanentKeys[0]);
+    }
+
+
+    @Test
+    public void resolvesInstanceNameSpaceFieldsOnce()
+    {
+        RetentionPlan plan = RetentionPlan.build(InstanceTagged.class);
+
+        assertEquals(3, plan.permanentInstanceNS.length);
+        for (int i = 0; i < plan.permanentFields.length; ++i)
+        {
+            // both existing references share the same accessor, the missing field is ignored
+            assertEquals(plan.permanentFields[i].getName().equals("mMissing") ? -1 : 0, plan.permanentInstanceNS[i]);
+            if (plan.permanentFields[i].getName().equals("mMissing"))
+            {
+                // the class name space still applies
+                assertEquals(InstanceTagged.class.getCanonicalName() + ".mMissing", plan.permanentKeys[i]);
+            }
+        }
+    }
+
+
+    @Test
+    public void stopsAtBaseClasses()
+    {
+        assertTrue(RetentionPlan.isBaseClass(Activity.class));
+        assertTrue(RetentionPlan.isBaseClass(Object.class));
+        assertFalse(RetentionPlan.isBaseClass(Base.class));
+    }
+
+
+    private static class Base extends Activity
+    {
+        @Retain
+        int mBase;
+
+        @Parameter(key = "param")
+        String mParam;
+    }
+
+
+    private static class Child extends Base
+    {
+        @Retain
+        int mChild;
+    }
+
+
+    private static class Colliding extends Base
+    {
+        @Retain(key = "mBase")
+        int mOther;
+    }
+
+
+    private static class Duplicates
+    {
+        @Retain(key = "key")
+        int mFirst;
+
+        @Retain(key = "key")
+        int mSecond;
+    }
+
+
+    private static class Tagged
+    {
+        private final static String TAG = "tagged";
+
+        @Retain(permanent = true)
+        int mValue;
+    }
+
+
+    private static class Untagged
+    {
+        @Retain(permanent = true)
+        int mValue;
+    }
+
+
+    private static class InstanceTagged extends Base
+    {
+        String mInstanceTag;
+
+        @Retain(permanent = true, instanceNSField = "mInstanceTag")
+        int mFirst;
+
+        @Retain(permanent = true, instanceNSField = "mInstanceTag")
+        String mSecond;
+
+        @Retain(permanent = true, instanceNSField = "mNoSuchField")
+        int mMissing;
+    }
+}
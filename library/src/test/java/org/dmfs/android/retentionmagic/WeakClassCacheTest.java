@@ -0,0 +1,102 @@
+package org.dmfs.android.retentionmagic;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Tests {@link WeakClassCache}.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public class WeakClassCacheTest
+{
+    @Test
+    public void putIfAbsentKeepsFirstValue() throws Exception
+    {
+        WeakClassCache<Object> cache = new WeakClassCache<Object>();
+        Object first = new Object();
+
+        assertTrue(cache.isEmpty());
+        assertSame(first, cache.putIfAbsent(String.class, first));
+        assertSame(first, cache.putIfAbsent(String.class, new Object()));
+        assertSame(first, cache.get(String.class));
+
+        cache.remove(String.class);
+        assertNull(cache.get(String.class));
+        assertTrue(cache.isEmpty());
+    }
+
+
+    @Test
+    public void growsBeyondTheInitialCapacity() throws Exception
+    {
+        WeakClassCache<Object> cache = new WeakClassCache<Object>();
+        List<Class<?>> classes = new ArrayList<Class<?>>();
+        List<Object> values = new ArrayList<Object>();
+        Class<?> type = int.class;
+        for (int i = 0; i < 200; ++i)
+        {
+            // each array dimension is a class of its own
+            type = Array.newInstance(type, 0).getClass();
+            classes.add(type);
+            values.add(new Object());
+            cache.put(type, values.get(i));
+        }
+
+        for (int i = 0; i < classes.size(); ++i)
+        {
+            assertSame(values.get(i), cache.get(classes.get(i)));
+        }
+        assertNull(cache.get(String.class));
+    }
+
+
+    @Test
+    public void doesNotKeepClassesAlive() throws Exception
+    {
+        WeakClassCache<Object> cache = new WeakClassCache<Object>();
+        WeakReference<ClassLoader> loader = putUnloadable(cache);
+
+        for (int i = 0; i < 100 && loader.get() != null; ++i)
+        {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(loader.get());
+
+        // the next write drops the entry of the unloaded class
+        cache.put(String.class, new Object());
+        cache.remove(String.class);
+        assertTrue(cache.isEmpty());
+    }
+
+
+    /**
+     * Puts a class of a class loader of its own into the given cache and returns a reference to the class loader.
+     */
+    private static WeakReference<ClassLoader> putUnloadable(WeakClassCache<Object> cache) throws Exception
+    {
+        URL classes = Unloadable.class.getProtectionDomain().getCodeSource().getLocation();
+        ClassLoader loader = new URLClassLoader(new URL[] { classes }, null);
+        Class<?> unloadable = loader.loadClass(Unloadable.class.getName());
+        cache.put(unloadable, new Object());
+        assertSame(unloadable, loader.loadClass(Unloadable.class.getName()));
+        return new WeakReference<ClassLoader>(loader);
+    }
+
+
+    public static class Unloadable
+    {
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic.processor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.Name;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+
+
+/**
+ * A class that contains fields with RetentionMagic annotations.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class AnnotatedClass
+{
+	/**
+	 * The names of the base classes of RetentionMagic.
+	 */
+	private final static Set<String> BASE_CLASSES = new HashSet<String>(Arrays.asList("org.dmfs.android.retentionmagic.Activity",
+		"org.dmfs.android.retentionmagic.DialogFragment", "org.dmfs.android.retentionmagic.Fragment", "org.dmfs.android.retentionmagic.FragmentActivity",
+		"org.dmfs.android.retentionmagic.ListFragment", "org.dmfs.android.retentionmagic.SupportDialogFragment",
+		"org.dmfs.android.retentionmagic.SupportFragment", "org.dmfs.android.retentionmagic.SupportListFragment"));
+
+	/**
+	 * The class that contains the annotated fields.
+	 */
+	final TypeElement type;
+
+	/**
+	 * Fields annotated with <code>@Retain</code>. The field lists contain the fields of the class and the inherited fields, see
+	 * {@link #addInheritedFields()}.
+	 */
+	final List<VariableElement> retainFields = new ArrayList<VariableElement>();
+
+	/**
+	 * Fields annotated with <code>@RetainArrayList</code>.
+	 */
+	final List<VariableElement> retainArrayListFields = new ArrayList<VariableElement>();
+
+	/**
+	 * Fields annotated with <code>@Parameter</code>.
+	 */
+	final List<VariableElement> parameterFields = new ArrayList<VariableElement>();
+
+	/**
+	 * Fields annotated with <code>@ParameterArrayList</code>.
+	 */
+	final List<VariableElement> parameterArrayListFields = new ArrayList<VariableElement>();
+
+
+	AnnotatedClass(TypeElement type)
+	{
+		this.type = type;
+	}
+
+
+	/**
+	 * Adds the annotated fields of all superclasses up to the first base class of RetentionMagic or class of the Android framework, like
+	 * <code>RetentionPlan</code> does at runtime.
+	 */
+	void addInheritedFields()
+	{
+		for (TypeElement superType = superclass(type); superType != null && !isBaseClass(superType); superType = superclass(superType))
+		{
+			for (VariableElement field : ElementFilter.fieldsIn(superType.getEnclosedElements()))
+			{
+				for (AnnotationMirror annotation : field.getAnnotationMirrors())
+				{
+					Name annotationName = ((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName();
+					if (annotationName.contentEquals(RetentionMagicProcessor.RETAIN))
+					{
+						retainFields.add(field);
+					}
+					else if (annotationName.contentEquals(RetentionMagicProcessor.RETAIN_ARRAY_LIST))
+					{
+						retainArrayListFields.add(field);
+					}
+					else if (annotationName.contentEquals(RetentionMagicProcessor.PARAMETER))
+					{
+						parameterFields.add(field);
+					}
+					else if (annotationName.contentEquals(RetentionMagicProcessor.PARAMETER_ARRAY_LIST))
+					{
+						parameterArrayListFields.add(field);
+					}
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Returns whether any superclass of the given class (up to the first base class of RetentionMagic or class of the Android framework) has fields with
+	 * RetentionMagic annotations.
+	 */
+	static boolean inheritsAnnotatedFields(TypeElement type)
+	{
+		for (TypeElement superType = superclass(type); superType != null && !isBaseClass(superType); superType = superclass(superType))
+		{
+			for (VariableElement field : ElementFilter.fieldsIn(superType.getEnclosedElements()))
+			{
+				for (AnnotationMirror annotation : field.getAnnotationMirrors())
+				{
+					if (RetentionMagicProcessor.isFieldAnnotation(((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName()))
+					{
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * Returns the field with the given name of the class or of one of its superclasses (up to the base classes) or <code>null</code> if there is no such
+	 * field.
+	 */
+	VariableElement findField(String name)
+	{
+		for (TypeElement declaringType = type; declaringType != null && !isBaseClass(declaringType); declaringType = superclass(declaringType))
+		{
+			for (VariableElement field : ElementFilter.fieldsIn(declaringType.getEnclosedElements()))
+			{
+				if (field.getSimpleName().contentEquals(name))
+				{
+					return field;
+				}
+			}
+		}
+		return null;
+	}
+
+
+	/**
+	 * Returns the expression to access the given field of a variable called <code>instance</code> in generated code. Inherited fields are accessed via a
+	 * cast to their declaring class, so fields hidden by a field of the same name in a subclass are accessed correctly.
+	 */
+	String access(VariableElement field)
+	{
+		TypeElement declaringType = (TypeElement) field.getEnclosingElement();
+		if (declaringType.equals(type))
+		{
+			return "instance." + field.getSimpleName();
+		}
+		return "((" + wildcardTypeName(declaringType) + ") instance)." + field.getSimpleName();
+	}
+
+
+	/**
+	 * Returns the package name of the class.
+	 */
+	String packageName(Elements elements)
+	{
+		return elements.getPackageOf(type).getQualifiedName().toString();
+	}
+
+
+	/**
+	 * Returns the name of a generated class for this class. For nested classes the name is derived from the binary name, so <code>Outer.Inner</code> results in
+	 * <code>Outer$Inner&lt;suffix></code>. That's the name {@link Class#getName()} returns at runtime plus the suffix.
+	 * 
+	 * @param elements
+	 *            The {@link Elements} utility.
+	 * @param suffix
+	 *            The suffix to append.
+	 * @return The simple name of the generated class.
+	 */
+	String generatedName(Elements elements, String suffix)
+	{
+		String binaryName = elements.getBinaryName(type).toString();
+		String packageName = packageName(elements);
+		return (packageName.length() == 0 ? binaryName : binaryName.substring(packageName.length() + 1)) + suffix;
+	}
+
+
+	/**
+	 * Returns the canonical name of the class that can be used in generated code.
+	 */
+	String typeName()
+	{
+		return type.getQualifiedName().toString();
+	}
+
+
+	/**
+	 * Returns the name of the class to use in the declarations of generated code. For generic classes this is the type parameterized with wildcards, e.g.
+	 * <code>Generic&lt;?></code>, so the generated code doesn't use raw types.
+	 */
+	String parameterizedTypeName()
+	{
+		return wildcardTypeName(type);
+	}
+
+
+	/**
+	 * Checks whether generated code in the same package can access the class.
+	 * 
+	 * @return <code>null</code> if the class is accessible, otherwise a message explaining why not.
+	 */
+	String checkAccessible()
+	{
+		Element element = type;
+		while (element.getKind().isClass() || element.getKind().isInterface())
+		{
+			TypeElement typeElement = (TypeElement) element;
+			if (typeElement.getNestingKind() == NestingKind.LOCAL || typeElement.getNestingKind() == NestingKind.ANONYMOUS)
+			{
+				return "local and anonymous classes are not supported";
+			}
+			if (typeElement.getModifiers().contains(Modifier.PRIVATE))
+			{
+				return typeElement.getQualifiedName() + " is private";
+			}
+			element = element.getEnclosingElement();
+		}
+		return null;
+	}
+
+
+	/**
+	 * Checks whether generated code in the package of this class can read and write the given field. Fields with a <code>@RetainWith</code> codec are not
+	 * supported, the codecs are resolved at runtime.
+	 * 
+	 * @param elements
+	 *            The {@link Elements} utility.
+	 * @param field
+	 *            The field, either declared in this class or inherited.
+	 * @return <code>null</code> if the field is accessible, otherwise a message explaining why not.
+	 */
+	String checkAccessible(Elements elements, VariableElement field)
+	{
+		if (field.getKind() != ElementKind.FIELD)
+		{
+			return field.getSimpleName() + " is not a field";
+		}
+		String problem = checkReadable(elements, field);
+		if (problem != null)
+		{
+			return problem;
+		}
+		if (field.getModifiers().contains(Modifier.FINAL))
+		{
+			return "field " + field.getSimpleName() + " is final";
+		}
+		for (AnnotationMirror annotation : field.getAnnotationMirrors())
+		{
+			if (((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName().contentEquals(RetentionMagicProcessor.RETAIN_WITH))
+			{
+				return "field " + field.getSimpleName() + " uses a codec";
+			}
+		}
+		return null;
+	}
+
+
+	/**
+	 * Checks whether generated code in the package of this class can read the given field.
+	 * 
+	 * @param elements
+	 *            The {@link Elements} utility.
+	 * @param field
+	 *            The field, either declared in this class or inherited.
+	 * @return <code>null</code> if the field is readable, otherwise a message explaining why not.
+	 */
+	String checkReadable(Elements elements, VariableElement field)
+	{
+		if (field.getModifiers().contains(Modifier.PRIVATE))
+		{
+			return "field " + field.getSimpleName() + " is private";
+		}
+		TypeElement declaringType = (TypeElement) field.getEnclosingElement();
+		if (!declaringType.equals(type))
+		{
+			boolean samePackage = elements.getPackageOf(declaringType).equals(elements.getPackageOf(type));
+			if (!samePackage && !field.getModifiers().contains(Modifier.PUBLIC))
+			{
+				return "inherited field " + declaringType.getSimpleName() + "." + field.getSimpleName() + " is not public";
+			}
+			if (!samePackage && !declaringType.getModifiers().contains(Modifier.PUBLIC) || new AnnotatedClass(declaringType).checkAccessible() != null)
+			{
+				return "superclass " + declaringType.getQualifiedName() + " is not accessible";
+			}
+		}
+		return null;
+	}
+
+
+	private static String wildcardTypeName(TypeElement type)
+	{
+		int count = type.getTypeParameters().size();
+		if (count == 0)
+		{
+			return type.getQualifiedName().toString();
+		}
+		StringBuilder result = new StringBuilder(type.getQualifiedName()).append("<?");
+		for (int i = 1; i < count; ++i)
+		{
+			result.append(", ?");
+		}
+		return result.append('>').toString();
+	}
+
+
+	private static TypeElement superclass(TypeElement type)
+	{
+		TypeMirror superclass = type.getSuperclass();
+		return superclass.getKind() == TypeKind.DECLARED ? (TypeElement) ((DeclaredType) superclass).asElement() : null;
+	}
+
+
+	/**
+	 * Returns whether the given class is one of the base classes of RetentionMagic or a framework class. Keep this in sync with
+	 * <code>RetentionPlan.isBaseClass(Class)</code>.
+	 */
+	private static boolean isBaseClass(TypeElement type)
+	{
+		String name = type.getQualifiedName().toString();
+		return name.startsWith("android.") || name.startsWith("androidx.") || name.startsWith("java.") || name.startsWith("javax.")
+			|| name.startsWith("dalvik.") || name.startsWith("kotlin.") || BASE_CLASSES.contains(name);
+	}
+}
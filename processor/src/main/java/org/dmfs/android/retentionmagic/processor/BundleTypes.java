@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic.processor;
+
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+
+/**
+ * Maps field types to the {@link BundleType}s that are used to store them in a <code>Bundle</code>.
+ * <p>
+ * The mapping follows the helpers of <code>RetentionMagic</code>. Exact types are matched first, then the assignable types are checked in a fixed order, so
+ * a class that implements <code>Parcelable</code> and <code>Serializable</code> is always stored as a <code>Parcelable</code>.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class BundleTypes
+{
+	private final Types mTypes;
+	private final TypeMirror mString;
+	private final TypeMirror mStringArray;
+	private final TypeMirror mBundle;
+	private final TypeMirror mSparseArray;
+	private final TypeMirror mParcelable;
+	private final TypeMirror mParcelableArray;
+	private final TypeMirror mCharSequence;
+	private final TypeMirror mCharSequenceArray;
+	private final TypeMirror mIBinder;
+	private final TypeMirror mSerializable;
+	private final TypeMirror mArrayList;
+	private final TypeMirror mInteger;
+
+
+	BundleTypes(Types types, Elements elements)
+	{
+		mTypes = types;
+		mString = type(elements, "java.lang.String");
+		mStringArray = types.getArrayType(mString);
+		mBundle = type(elements, "android.os.Bundle");
+		mSparseArray = type(elements, "android.util.SparseArray");
+		mParcelable = type(elements, "android.os.Parcelable");
+		mParcelableArray = mParcelable == null ? null : types.getArrayType(mParcelable);
+		mCharSequence = type(elements, "java.lang.CharSequence");
+		mCharSequenceArray = types.getArrayType(mCharSequence);
+		mIBinder = type(elements, "android.os.IBinder");
+		mSerializable = type(elements, "java.io.Serializable");
+		mArrayList = type(elements, "java.util.ArrayList");
+		mInteger = type(elements, "java.lang.Integer");
+	}
+
+
+	/**
+	 * Returns the {@link BundleType} for a field of the given type.
+	 * 
+	 * @param fieldType
+	 *            The type of the field.
+	 * @return The {@link BundleType} or <code>null</code> if the type can not be stored in a Bundle.
+	 */
+	BundleType fieldType(TypeMirror fieldType)
+	{
+		TypeKind kind = fieldType.getKind();
+		if (kind.isPrimitive())
+		{
+			return new BundleType(primitiveName(kind), null, null);
+		}
+
+		if (kind == TypeKind.ARRAY && ((ArrayType) fieldType).getComponentType().getKind().isPrimitive())
+		{
+			return new BundleType(primitiveName(((ArrayType) fieldType).getComponentType().getKind()) + "Array", null, null);
+		}
+
+		if (kind != TypeKind.DECLARED && kind != TypeKind.ARRAY)
+		{
+			return null;
+		}
+
+		TypeMirror erasure = mTypes.erasure(fieldType);
+		if (mTypes.isSameType(erasure, mString))
+		{
+			return new BundleType("String", null, null);
+		}
+		if (mTypes.isSameType(erasure, mStringArray))
+		{
+			return new BundleType("StringArray", null, null);
+		}
+		if (mBundle != null && mTypes.isSameType(erasure, mBundle))
+		{
+			return new BundleType("Bundle", null, null);
+		}
+		if (mSparseArray != null && mTypes.isSameType(erasure, mTypes.erasure(mSparseArray)))
+		{
+			return new BundleType("SparseParcelableArray", erasure.toString(), "android.util.SparseArray");
+		}
+		if (mArrayList != null && mTypes.isAssignable(erasure, mTypes.erasure(mArrayList)))
+		{
+			// ArrayLists are handled by @RetainArrayList and @ParameterArrayList
+			return null;
+		}
+
+		if (mParcelable != null && mTypes.isAssignable(erasure, mParcelable))
+		{
+			return new BundleType("Parcelable", getCast(erasure, mParcelable), null);
+		}
+		if (mParcelableArray != null && mTypes.isAssignable(erasure, mParcelableArray))
+		{
+			return new BundleType("ParcelableArray", getCast(erasure, mParcelableArray), null);
+		}
+		if (mTypes.isAssignable(erasure, mCharSequence))
+		{
+			return new BundleType("CharSequence", getCast(erasure, mCharSequence), null);
+		}
+		if (mTypes.isAssignable(erasure, mCharSequenceArray))
+		{
+			return new BundleType("CharSequenceArray", getCast(erasure, mCharSequenceArray), null);
+		}
+		if (mIBinder != null && mTypes.isAssignable(erasure, mIBinder))
+		{
+			// IBinders are not supported prior to SDK level 18, we leave them to the reflective fallback. This includes IBinders that are Serializable,
+			// because RetentionMagic prefers IBinder over Serializable.
+			return null;
+		}
+		if (mTypes.isAssignable(erasure, mSerializable))
+		{
+			return new BundleType("Serializable", getCast(erasure, mSerializable), null);
+		}
+		return null;
+	}
+
+
+	/**
+	 * Returns the {@link BundleType} for an <code>ArrayList</code> field with the given generic type.
+	 * 
+	 * @param fieldType
+	 *            The type of the field.
+	 * @param genericType
+	 *            The generic type of the list, as given in the annotation.
+	 * @return The {@link BundleType} or <code>null</code> if the list can not be stored in a Bundle.
+	 */
+	BundleType arrayListType(TypeMirror fieldType, TypeMirror genericType)
+	{
+		if (mArrayList == null || genericType == null || fieldType.getKind() != TypeKind.DECLARED
+			|| !mTypes.isAssignable(mTypes.erasure(fieldType), mTypes.erasure(mArrayList)))
+		{
+			return null;
+		}
+
+		String getCast = mTypes.erasure(fieldType).toString();
+		TypeMirror erasure = mTypes.erasure(genericType);
+		if (mTypes.isSameType(erasure, mInteger))
+		{
+			return new BundleType("IntegerArrayList", getCast, "java.util.ArrayList");
+		}
+		if (mTypes.isSameType(erasure, mString))
+		{
+			return new BundleType("StringArrayList", getCast, "java.util.ArrayList");
+		}
+		if (mParcelable != null && mTypes.isAssignable(erasure, mParcelable))
+		{
+			return new BundleType("ParcelableArrayList", getCast, "java.util.ArrayList");
+		}
+		if (mTypes.isAssignable(erasure, mCharSequence))
+		{
+			return new BundleType("CharSequenceArrayList", getCast, "java.util.ArrayList");
+		}
+		return null;
+	}
+
+
+	/**
+	 * Returns the cast from the return type of a getter to the given field type or <code>null</code> if the field has the return type, in which case a cast
+	 * would be redundant (and reported by <code>-Xlint:cast</code>).
+	 */
+	private String getCast(TypeMirror fieldErasure, TypeMirror getterType)
+	{
+		return mTypes.isSameType(fieldErasure, getterType) ? null : fieldErasure.toString();
+	}
+
+
+	private static String primitiveName(TypeKind kind)
+	{
+		String name = kind.name();
+		return name.charAt(0) + name.substring(1).toLowerCase();
+	}
+
+
+	private static TypeMirror type(Elements elements, String name)
+	{
+		TypeElement element = elements.getTypeElement(name);
+		return element == null ? null : element.asType();
+	}
+
+
+	/**
+	 * Describes how a specific type is stored in a Bundle.
+	 */
+	static final class BundleType
+	{
+		/**
+		 * The part of the Bundle getter and putter names after "get" and "put", like "Int" or "ParcelableArrayList".
+		 */
+		final String name;
+
+		/**
+		 * The type to cast the result of the getter to or <code>null</code> if no cast is required.
+		 */
+		final String getCast;
+
+		/**
+		 * The type to cast the field value to before it's passed to the putter or <code>null</code> if no cast is required.
+		 */
+		final String putCast;
+
+
+		BundleType(String name, String getCast, String putCast)
+		{
+			this.name = name;
+			this.getCast = getCast;
+			this.putCast = putCast;
+		}
+
+
+		/**
+		 * Returns an expression that reads the value with the given key from a Bundle.
+		 */
+		String getter(String bundle, String key)
+		{
+			String call = bundle + ".get" + name + "(" + key + ")";
+			return getCast == null ? call : "(" + getCast + ") " + call;
+		}
+
+
+		/**
+		 * Returns a statement that writes the given value to a Bundle.
+		 */
+		String putter(String bundle, String key, String value)
+		{
+			return bundle + ".put" + name + "(" + key + ", " + (putCast == null ? value : "(" + putCast + ") " + value) + ");";
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic.processor;
+
+import java.util.Collection;
+
+import javax.lang.model.util.Elements;
+
+
+/**
+ * Generates a <code>RetentionIndex</code> that lists all classes of a module with RetentionMagic annotations, so they can be prewarmed at startup. An index
+ * is only generated if its name has been set with the processor option {@value #OPTION_INDEX}.
+ * <p>
+ * The classes are listed by their binary names rather than by class literals, so the index can list classes that are not accessible from the package of the
+ * index.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class IndexGenerator
+{
+	/**
+	 * The name of the processor option to set the qualified name of the index class.
+	 */
+	final static String OPTION_INDEX = "retentionmagic.index";
+
+	/**
+	 * The path of the service registration of the index. <code>RetentionMagic</code> loads all registered indices with a {@link java.util.ServiceLoader}.
+	 */
+	final static String SERVICES_FILE = "META-INF/services/org.dmfs.android.retentionmagic.RetentionIndex";
+
+	private final Elements mElements;
+
+
+	IndexGenerator(Elements elements)
+	{
+		mElements = elements;
+	}
+
+
+	/**
+	 * Generates the source code of the index.
+	 * 
+	 * @param qualifiedName
+	 *            The qualified name of the index class.
+	 * @param classes
+	 *            The {@link AnnotatedClass}es to list.
+	 * @return The source code.
+	 */
+	String generate(String qualifiedName, Collection<AnnotatedClass> classes)
+	{
+		int dot = qualifiedName.lastIndexOf('.');
+		String packageName = dot < 0 ? "" : qualifiedName.substring(0, dot);
+		String simpleName = qualifiedName.substring(dot + 1);
+
+		StringBuilder result = Sources.header(new StringBuilder(1024 + classes.size() * 64), packageName);
+		result.append("public final class ").append(simpleName).append(" implements org.dmfs.android.retentionmagic.RetentionIndex\n");
+		result.append("{\n");
+		result.append("\tprivate final static String[] CLASS_NAMES = {\n");
+		for (AnnotatedClass annotatedClass : classes)
+		{
+			result.append("\t\t").append(Sources.literal(mElements.getBinaryName(annotatedClass.type).toString())).append(",\n");
+		}
+		result.append("\t};\n\n\n");
+		result.append("\t@Override\n");
+		result.append("\tpublic String[] classNames()\n");
+		result.append("\t{\n");
+		result.append("\t\treturn CLASS_NAMES.clone();\n");
+		result.append("\t}\n");
+		result.append("}\n");
+		return result.toString();
+	}
+}
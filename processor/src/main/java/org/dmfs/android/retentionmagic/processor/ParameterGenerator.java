@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic.processor;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+
+import org.dmfs.android.retentionmagic.processor.BundleTypes.BundleType;
+
+
+/**
+ * Generates a <code>ParameterInjector</code> that initializes the fields annotated with <code>@Parameter</code> and <code>@ParameterArrayList</code> and an
+ * <code>&lt;ClassName>_Args</code> class with a typed builder for the matching extras or arguments Bundle.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class ParameterGenerator
+{
+	/**
+	 * The suffix of generated parameter injectors. Must match the suffix <code>RetentionMagic</code> looks for.
+	 */
+	final static String INJECTOR_SUFFIX = "_ParameterInjector";
+
+	/**
+	 * The suffix of generated argument builders.
+	 */
+	final static String ARGS_SUFFIX = "_Args";
+
+	private final Elements mElements;
+	private final BundleTypes mBundleTypes;
+
+
+	ParameterGenerator(Elements elements, BundleTypes bundleTypes)
+	{
+		mElements = elements;
+		mBundleTypes = bundleTypes;
+	}
+
+
+	/**
+	 * Generates the source code of the parameter injector for the given class.
+	 * 
+	 * @param annotatedClass
+	 *            The {@link AnnotatedClass}.
+	 * @return The source code.
+	 * @throws UnsupportedOperationException
+	 *             if no injector can be generated for this class. The message contains the reason.
+	 */
+	String generateInjector(AnnotatedClass annotatedClass)
+	{
+		String typeName = annotatedClass.parameterizedTypeName();
+
+		StringBuilder inject = new StringBuilder(1024);
+		for (Parameter parameter : parameters(annotatedClass))
+		{
+			inject.append("\t\t").append(annotatedClass.access(parameter.field)).append(" = ")
+				.append(parameter.bundleType.getter("arguments", Sources.literal(parameter.key))).append(";\n");
+		}
+
+		StringBuilder source = Sources.header(new StringBuilder(4096), annotatedClass.packageName(mElements));
+		source.append("@SuppressWarnings({ \"unchecked\", \"rawtypes\" })\n");
+		String className = annotatedClass.generatedName(mElements, INJECTOR_SUFFIX);
+		source.append("public final class ").append(className);
+		source.append(" implements org.dmfs.android.retentionmagic.ParameterInjector<").append(typeName).append(">\n{\n");
+		Sources.instance(source, className);
+		source.append("\t@Override\n");
+		source.append("\tpublic void inject(").append(typeName).append(" instance, android.os.Bundle arguments)\n\t{\n");
+		source.append(inject);
+		source.append("\t}\n}\n");
+		return source.toString();
+	}
+
+
+	/**
+	 * Generates the source code of the argument builder for the given class.
+	 * 
+	 * @param annotatedClass
+	 *            The {@link AnnotatedClass}.
+	 * @return The source code.
+	 * @throws UnsupportedOperationException
+	 *             if no builder can be generated for this class. The message contains the reason.
+	 */
+	String generateArgs(AnnotatedClass annotatedClass)
+	{
+		List<Parameter> parameters = parameters(annotatedClass);
+		Set<String> names = new HashSet<String>();
+
+		StringBuilder setters = new StringBuilder(2048);
+		for (Parameter parameter : parameters)
+		{
+			String name = setterName(parameter.field);
+			if (!names.add(name))
+			{
+				throw new UnsupportedOperationException("duplicate parameter name " + name);
+			}
+
+			setters.append("\n\n");
+			setters.append("\t\t/**\n");
+			setters.append("\t\t * Sets the value of {@link ").append(annotatedClass.typeName()).append('#').append(parameter.field.getSimpleName())
+				.append("}.\n");
+			setters.append("\t\t */\n");
+			setters.append("\t\tpublic Builder ").append(name).append('(').append(parameter.field.asType()).append(" value)\n\t\t{\n");
+			setters.append("\t\t\t").append(parameter.bundleType.putter("mArguments", Sources.literal(parameter.key), "value")).append('\n');
+			setters.append("\t\t\treturn this;\n");
+			setters.append("\t\t}\n");
+		}
+
+		String name = annotatedClass.generatedName(mElements, ARGS_SUFFIX);
+		StringBuilder source = Sources.header(new StringBuilder(4096), annotatedClass.packageName(mElements));
+		source.append("/**\n");
+		source.append(" * Builds the extras or arguments Bundle for {@link ").append(annotatedClass.typeName()).append("}.\n");
+		source.append(" */\n");
+		source.append("@SuppressWarnings({ \"unchecked\", \"rawtypes\" })\n");
+		source.append("public final class ").append(name).append("\n{\n");
+		source.append("\tprivate ").append(name).append("()\n\t{\n\t}\n\n\n");
+		source.append("\t/**\n");
+		source.append("\t * Returns a new {@link Builder}.\n");
+		source.append("\t */\n");
+		source.append("\tpublic static Builder builder()\n\t{\n\t\treturn new Builder();\n\t}\n\n\n");
+		source.append("\tpublic final static class Builder\n\t{\n");
+		source.append("\t\tprivate final android.os.Bundle mArguments = new android.os.Bundle(").append(parameters.size()).append(");\n\n\n");
+		source.append("\t\tprivate Builder()\n\t\t{\n\t\t}\n");
+		source.append(setters);
+		source.append("\n\n");
+		source.append("\t\t/**\n");
+		source.append("\t\t * Returns the Bundle with all values set so far. The Bundle is not copied, so don't modify the builder afterwards.\n");
+		source.append("\t\t */\n");
+		source.append("\t\tpublic android.os.Bundle toBundle()\n\t\t{\n\t\t\treturn mArguments;\n\t\t}\n");
+		source.append("\t}\n}\n");
+		return source.toString();
+	}
+
+
+	private List<Parameter> parameters(AnnotatedClass annotatedClass)
+	{
+		List<Parameter> result = new ArrayList<Parameter>(annotatedClass.parameterFields.size() + annotatedClass.parameterArrayListFields.size());
+
+		for (VariableElement field : annotatedClass.parameterFields)
+		{
+			checkAccessible(annotatedClass, field);
+			BundleType bundleType = mBundleTypes.fieldType(field.asType());
+			if (bundleType == null)
+			{
+				throw new UnsupportedOperationException("type of field " + field.getSimpleName() + " not supported");
+			}
+			result.add(new Parameter(field, bundleType, Sources.key(field, Sources.annotationValue(mElements, field, RetentionMagicProcessor.PARAMETER, "key"))));
+		}
+
+		for (VariableElement field : annotatedClass.parameterArrayListFields)
+		{
+			checkAccessible(annotatedClass, field);
+			BundleType bundleType = mBundleTypes.arrayListType(field.asType(),
+				(TypeMirror) Sources.annotationValue(mElements, field, RetentionMagicProcessor.PARAMETER_ARRAY_LIST, "genericType"));
+			if (bundleType == null)
+			{
+				throw new UnsupportedOperationException("list type of field " + field.getSimpleName() + " not supported");
+			}
+			result.add(new Parameter(field, bundleType, Sources.key(field,
+				Sources.annotationValue(mElements, field, RetentionMagicProcessor.PARAMETER_ARRAY_LIST, "value"))));
+		}
+		return result;
+	}
+
+
+	/**
+	 * Returns the name of the builder method of the given field. The Android field prefix "m" is removed, so <code>mValue</code> results in
+	 * <code>value</code>.
+	 */
+	private static String setterName(VariableElement field)
+	{
+		String name = field.getSimpleName().toString();
+		if (name.length() > 1 && name.charAt(0) == 'm' && Character.isUpperCase(name.charAt(1)))
+		{
+			String stripped = Character.toLowerCase(name.charAt(1)) + name.substring(2);
+			if (SourceVersion.isName(stripped))
+			{
+				return stripped;
+			}
+		}
+		return name;
+	}
+
+
+	private void checkAccessible(AnnotatedClass annotatedClass, VariableElement field)
+	{
+		String problem = annotatedClass.checkAccessible(mElements, field);
+		if (problem != null)
+		{
+			throw new UnsupportedOperationException(problem);
+		}
+	}
+
+
+	/**
+	 * A parameter field with its key and {@link BundleType}.
+	 */
+	private final static class Parameter
+	{
+		final VariableElement field;
+		final BundleType bundleType;
+		final String key;
+
+
+		Parameter(VariableElement field, BundleType bundleType, String key)
+		{
+			this.field = field;
+			this.bundleType = bundleType;
+			this.key = key;
+		}
+	}
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic.processor;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+
+
+/**
+ * Generates a <code>PreferencesBinder</code> that loads and persists the fields annotated with <code>@Retain(permanent = true)</code> using direct field
+ * access and typed <code>SharedPreferences</code> calls.
+ * <p>
+ * The keys are computed the same way <code>RetentionMagic</code> computes them at runtime. The class name space is resolved at compile time, so a class
+ * that uses the default name space must either have a constant <code>TAG</code> field or no <code>TAG</code> field at all.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class PreferencesBinderGenerator
+{
+	/**
+	 * The suffix of generated preferences binders. Must match the suffix <code>RetentionMagic</code> looks for.
+	 */
+	final static String SUFFIX = "_PreferencesBinder";
+
+	private final Elements mElements;
+
+
+	PreferencesBinderGenerator(Elements elements)
+	{
+		mElements = elements;
+	}
+
+
+	/**
+	 * Generates the source code of the preferences binder for the given class.
+	 * 
+	 * @param annotatedClass
+	 *            The {@link AnnotatedClass}.
+	 * @return The source code.
+	 * @throws UnsupportedOperationException
+	 *             if no binder can be generated for this class. The message contains the reason.
+	 */
+	String generate(AnnotatedClass annotatedClass)
+	{
+		String typeName = annotatedClass.parameterizedTypeName();
+
+		StringBuilder constants = new StringBuilder(1024);
+		StringBuilder init = new StringBuilder(1024);
+		StringBuilder persist = new StringBuilder(1024);
+
+		// the instance name spaces used by this class, they are evaluated only once per call
+		Map<VariableElement, String> instanceNameSpaces = new LinkedHashMap<VariableElement, String>();
+
+		// the names of the key constants, a field may hide a field of the same name in a superclass
+		Set<String> keyConstants = new HashSet<String>();
+
+		for (VariableElement field : annotatedClass.retainFields)
+		{
+			if (!Boolean.TRUE.equals(Sources.annotationValue(mElements, field, RetentionMagicProcessor.RETAIN, "permanent")))
+			{
+				continue;
+			}
+
+			String problem = annotatedClass.checkAccessible(mElements, field);
+			if (problem != null)
+			{
+				throw new UnsupportedOperationException(problem);
+			}
+
+			String fieldName = field.getSimpleName().toString();
+			String keyConstant = keyConstant(keyConstants, annotatedClass, field);
+			String classPrefix = classNameSpace(annotatedClass.type,
+				(String) Sources.annotationValue(mElements, field, RetentionMagicProcessor.RETAIN, "classNS"));
+			String key = Sources.key(field, Sources.annotationValue(mElements, field, RetentionMagicProcessor.RETAIN, "key"));
+
+			String keyExpression;
+			VariableElement instanceNSField = instanceNameSpaceField(annotatedClass,
+				(String) Sources.annotationValue(mElements, field, RetentionMagicProcessor.RETAIN, "instanceNSField"));
+			if (instanceNSField == null)
+			{
+				constants.append("\tprivate final static String ").append(keyConstant).append(" = ").append(Sources.literal(classPrefix + key)).append(";\n");
+				keyExpression = keyConstant;
+			}
+			else
+			{
+				constants.append("\tprivate final static String ").append(keyConstant).append(" = ").append(Sources.literal(key)).append(";\n");
+				String instanceNameSpace = instanceNameSpaces.get(instanceNSField);
+				if (instanceNameSpace == null)
+				{
+					instanceNameSpace = "instanceNS" + instanceNameSpaces.size();
+					instanceNameSpaces.put(instanceNSField, instanceNameSpace);
+				}
+				keyExpression = (classPrefix.length() == 0 ? "" : Sources.literal(classPrefix) + " + ") + instanceNameSpace + " + " + keyConstant;
+			}
+
+			String value = annotatedClass.access(field);
+			TypeMirror type = field.asType();
+			switch (type.getKind())
+			{
+				case BOOLEAN:
+					init.append("\t\t").append(value).append(" = prefs.getBoolean(").append(keyExpression).append(", ").append(value).append(");\n");
+					persist.append("\t\teditor.putBoolean(").append(keyExpression).append(", ").append(value).append(");\n");
+					break;
+				case BYTE:
+					init.append("\t\t").append(value).append(" = (byte) (prefs.getInt(").append(keyExpression).append(", ").append(value)
+						.append(") & 0xff);\n");
+					persist.append("\t\teditor.putInt(").append(keyExpression).append(", ").append(value).append(");\n");
+					break;
+				case SHORT:
+				case CHAR:
+					init.append("\t\t").append(value).append(" = (").append(type.getKind().name().toLowerCase()).append(") prefs.getInt(")
+						.append(keyExpression).append(", ").append(value).append(");\n");
+					persist.append("\t\teditor.putInt(").append(keyExpression).append(", ").append(value).append(");\n");
+					break;
+				case INT:
+				case LONG:
+				case FLOAT:
+					String accessor = type.getKind().name().charAt(0) + type.getKind().name().substring(1).toLowerCase();
+					init.append("\t\t").append(value).append(" = prefs.get").append(accessor).append('(').append(keyExpression).append(", ").append(value)
+						.append(");\n");
+					persist.append("\t\teditor.put").append(accessor).append('(').append(keyExpression).append(", ").append(value).append(");\n");
+					break;
+				case ARRAY:
+					if (((ArrayType) type).getComponentType().getKind() != TypeKind.CHAR)
+					{
+						throw new UnsupportedOperationException("type of field " + fieldName + " not supported for permanent storage");
+					}
+					init.append("\t\t").append(value).append(" = prefs.getString(").append(keyExpression).append(", new String(").append(value)
+						.append(")).toCharArray();\n");
+					persist.append("\t\teditor.putString(").append(keyExpression).append(", new String(").append(value).append("));\n");
+					break;
+				case DECLARED:
+					if (!"java.lang.String".equals(type.toString()))
+					{
+						throw new UnsupportedOperationException("type of field " + fieldName + " not supported for permanent storage");
+					}
+					init.append("\t\t").append(value).append(" = prefs.getString(").append(keyExpression).append(", ").append(value).append(");\n");
+					persist.append("\t\teditor.putString(").append(keyExpression).append(", ").append(value).append(");\n");
+					break;
+				default:
+					throw new UnsupportedOperationException("type of field " + fieldName + " not supported for permanent storage");
+			}
+		}
+
+		StringBuilder nameSpaces = new StringBuilder(256);
+		for (Map.Entry<VariableElement, String> entry : instanceNameSpaces.entrySet())
+		{
+			String value = annotatedClass.access(entry.getKey());
+			nameSpaces.append("\t\tString ").append(entry.getValue()).append(" = ");
+			if (!entry.getKey().asType().getKind().isPrimitive())
+			{
+				nameSpaces.append(value).append(" == null ? \"\" : ");
+			}
+			nameSpaces.append(value).append(" + \".\";\n");
+		}
+
+		StringBuilder source = Sources.header(new StringBuilder(4096), annotatedClass.packageName(mElements));
+		String className = annotatedClass.generatedName(mElements, SUFFIX);
+		source.append("public final class ").append(className);
+		source.append(" implements org.dmfs.android.retentionmagic.PreferencesBinder<").append(typeName).append(">\n{\n");
+		Sources.instance(source, className);
+		if (constants.length() > 0)
+		{
+			source.append(constants).append("\n\n");
+		}
+		source.append("\t@Override\n");
+		source.append("\tpublic void init(").append(typeName).append(" instance, android.content.SharedPreferences prefs)\n\t{\n");
+		source.append(nameSpaces);
+		source.append(init);
+		source.append("\t}\n\n\n");
+		source.append("\t@Override\n");
+		source.append("\tpublic void persist(").append(typeName).append(" instance, android.content.SharedPreferences.Editor editor)\n\t{\n");
+		source.append(nameSpaces);
+		source.append(persist);
+		source.append("\t}\n}\n");
+		return source.toString();
+	}
+
+
+	/**
+	 * Returns a unique name for the key constant of the given field. Inherited fields include the name of their declaring class, so a field that hides a
+	 * field of a superclass doesn't result in two constants of the same name.
+	 */
+	private static String keyConstant(Set<String> keyConstants, AnnotatedClass annotatedClass, VariableElement field)
+	{
+		String name = field.getEnclosingElement().equals(annotatedClass.type) ? "KEY_" + field.getSimpleName() : "KEY_"
+			+ field.getEnclosingElement().getSimpleName() + "_" + field.getSimpleName();
+		String result = name;
+		for (int i = 1; !keyConstants.add(result); ++i)
+		{
+			result = name + "_" + i;
+		}
+		return result;
+	}
+
+
+	/**
+	 * Returns the class name space prefix (including the trailing ".") for the given <code>classNS</code> value.
+	 */
+	private String classNameSpace(TypeElement type, String classNS)
+	{
+		if (classNS == null || classNS.length() == 0)
+		{
+			return "";
+		}
+
+		if (!".".equals(classNS))
+		{
+			return classNS + ".";
+		}
+
+		for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements()))
+		{
+			if (field.getSimpleName().contentEquals("TAG"))
+			{
+				Object tag = field.getConstantValue();
+				if (tag == null)
+				{
+					throw new UnsupportedOperationException("TAG is not a constant");
+				}
+				return tag + ".";
+			}
+		}
+		return type.getQualifiedName() + ".";
+	}
+
+
+	/**
+	 * Returns the field that holds the instance name space or <code>null</code> if there is no such field. The field may be declared in a superclass.
+	 */
+	private VariableElement instanceNameSpaceField(AnnotatedClass annotatedClass, String instanceNSField)
+	{
+		if (instanceNSField == null || instanceNSField.length() == 0)
+		{
+			return null;
+		}
+
+		VariableElement field = annotatedClass.findField(instanceNSField);
+		if (field == null)
+		{
+			// RetentionMagic ignores instance name space fields that don't exist
+			return null;
+		}
+
+		String problem = annotatedClass.checkReadable(mElements, field);
+		if (problem != null)
+		{
+			throw new UnsupportedOperationException("instance name space " + problem);
+		}
+		return field;
+	}
+}
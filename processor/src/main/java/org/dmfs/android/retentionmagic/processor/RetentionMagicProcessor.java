@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Name;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+
+
+/**
+ * An annotation processor that generates binders for classes with RetentionMagic annotations, so <code>RetentionMagic</code> doesn't have to use reflection
+ * at runtime.
+ * <p>
+ * Binders are only generated if all annotated fields of a class are accessible from the same package (i.e. not <code>private</code>) and of a supported
+ * type. Otherwise the processor prints a note and <code>RetentionMagic</code> falls back to reflection for that class. The binders include the annotated
+ * fields of the superclasses. Subclasses without annotated fields of their own get binders as well, if they are compiled together with the processor.
+ * </p>
+ * <p>
+ * If the processor option <code>retentionmagic.index</code> is set, the processor also generates a <code>RetentionIndex</code> of that name and registers
+ * it in <code>META-INF/services</code>, so the indices of all modules are found at runtime.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class RetentionMagicProcessor extends AbstractProcessor
+{
+	final static String RETAIN = "org.dmfs.android.retentionmagic.annotations.Retain";
+	final static String RETAIN_ARRAY_LIST = "org.dmfs.android.retentionmagic.annotations.RetainArrayList";
+	final static String PARAMETER = "org.dmfs.android.retentionmagic.annotations.Parameter";
+	final static String PARAMETER_ARRAY_LIST = "org.dmfs.android.retentionmagic.annotations.ParameterArrayList";
+	final static String RETAIN_WITH = "org.dmfs.android.retentionmagic.annotations.RetainWith";
+
+	private Elements mElements;
+	private Filer mFiler;
+	private Messager mMessager;
+	private StateBinderGenerator mStateBinderGenerator;
+	private PreferencesBinderGenerator mPreferencesBinderGenerator;
+	private ParameterGenerator mParameterGenerator;
+	private IndexGenerator mIndexGenerator;
+
+	/**
+	 * The qualified name of the index or <code>null</code> if no index has been requested.
+	 */
+	private String mIndexName;
+
+	/**
+	 * Whether the index has been written already.
+	 */
+	private boolean mIndexWritten;
+
+
+	@Override
+	public synchronized void init(ProcessingEnvironment processingEnv)
+	{
+		super.init(processingEnv);
+		mElements = processingEnv.getElementUtils();
+		mFiler = processingEnv.getFiler();
+		mMessager = processingEnv.getMessager();
+		BundleTypes bundleTypes = new BundleTypes(processingEnv.getTypeUtils(), mElements);
+		mStateBinderGenerator = new StateBinderGenerator(mElements, bundleTypes);
+		mPreferencesBinderGenerator = new PreferencesBinderGenerator(mElements);
+		mParameterGenerator = new ParameterGenerator(mElements, bundleTypes);
+		mIndexGenerator = new IndexGenerator(mElements);
+		String indexName = processingEnv.getOptions().get(IndexGenerator.OPTION_INDEX);
+		mIndexName = indexName == null || indexName.length() == 0 ? null : indexName;
+	}
+
+
+	@Override
+	public Set<String> getSupportedAnnotationTypes()
+	{
+		return new HashSet<String>(Arrays.asList(RETAIN, RETAIN_ARRAY_LIST, PARAMETER, PARAMETER_ARRAY_LIST));
+	}
+
+
+	@Override
+	public Set<String> getSupportedOptions()
+	{
+		return Collections.singleton(IndexGenerator.OPTION_INDEX);
+	}
+
+
+	@Override
+	public SourceVersion getSupportedSourceVersion()
+	{
+		return SourceVersion.latestSupported();
+	}
+
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv)
+	{
+		Map<TypeElement, AnnotatedClass> classes = new LinkedHashMap<TypeElement, AnnotatedClass>();
+		for (TypeElement annotation : annotations)
+		{
+			String annotationName = annotation.getQualifiedName().toString();
+			for (Element element : roundEnv.getElementsAnnotatedWith(annotation))
+			{
+				if (!(element instanceof VariableElement) || !(element.getEnclosingElement() instanceof TypeElement))
+				{
+					continue;
+				}
+
+				TypeElement type = (TypeElement) element.getEnclosingElement();
+				AnnotatedClass annotatedClass = classes.get(type);
+				if (annotatedClass == null)
+				{
+					annotatedClass = new AnnotatedClass(type);
+					classes.put(type, annotatedClass);
+				}
+
+				VariableElement field = (VariableElement) element;
+				if (RETAIN.equals(annotationName))
+				{
+					annotatedClass.retainFields.add(field);
+				}
+				else if (RETAIN_ARRAY_LIST.equals(annotationName))
+				{
+					annotatedClass.retainArrayListFields.add(field);
+				}
+				else if (PARAMETER.equals(annotationName))
+				{
+					annotatedClass.parameterFields.add(field);
+				}
+				else if (PARAMETER_ARRAY_LIST.equals(annotationName))
+				{
+					annotatedClass.parameterArrayListFields.add(field);
+				}
+			}
+		}
+
+		addSubclasses(classes, ElementFilter.typesIn(roundEnv.getRootElements()));
+
+		writeIndex(classes);
+
+		for (AnnotatedClass annotatedClass : classes.values())
+		{
+			annotatedClass.addInheritedFields();
+
+			String problem = annotatedClass.checkAccessible();
+			if (problem != null)
+			{
+				note(annotatedClass, "no binders generated, " + problem);
+				continue;
+			}
+
+			String collision = mStateBinderGenerator.keyCollision(annotatedClass);
+			if (collision != null)
+			{
+				// RetentionMagic would throw at runtime, so fail the build instead
+				mMessager.printMessage(Kind.ERROR, "RetentionMagic: " + collision, annotatedClass.type);
+				continue;
+			}
+
+			// generate all binders, even empty ones, so RetentionMagic falls back to reflection only for classes that have not been processed
+			try
+			{
+				write(annotatedClass, StateBinderGenerator.SUFFIX, mStateBinderGenerator.generate(annotatedClass));
+			}
+			catch (UnsupportedOperationException e)
+			{
+				note(annotatedClass, "no state binder generated, " + e.getMessage());
+			}
+
+			try
+			{
+				write(annotatedClass, PreferencesBinderGenerator.SUFFIX, mPreferencesBinderGenerator.generate(annotatedClass));
+			}
+			catch (UnsupportedOperationException e)
+			{
+				note(annotatedClass, "no preferences binder generated, " + e.getMessage());
+			}
+
+			try
+			{
+				write(annotatedClass, ParameterGenerator.INJECTOR_SUFFIX, mParameterGenerator.generateInjector(annotatedClass));
+			}
+			catch (UnsupportedOperationException e)
+			{
+				note(annotatedClass, "no parameter injector generated, " + e.getMessage());
+			}
+
+			if (!annotatedClass.parameterFields.isEmpty() || !annotatedClass.parameterArrayListFields.isEmpty())
+			{
+				try
+				{
+					write(annotatedClass, ParameterGenerator.ARGS_SUFFIX, mParameterGenerator.generateArgs(annotatedClass));
+				}
+				catch (UnsupportedOperationException e)
+				{
+					mMessager.printMessage(Kind.NOTE, "RetentionMagic: no argument builder generated for " + annotatedClass.typeName() + ", " + e.getMessage(),
+						annotatedClass.type);
+				}
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * Returns whether the given name is the name of one of the annotations that mark retained fields or parameters.
+	 */
+	static boolean isFieldAnnotation(Name annotationName)
+	{
+		return annotationName.contentEquals(RETAIN) || annotationName.contentEquals(RETAIN_ARRAY_LIST) || annotationName.contentEquals(PARAMETER)
+			|| annotationName.contentEquals(PARAMETER_ARRAY_LIST);
+	}
+
+
+	/**
+	 * Adds the given classes and their nested classes that don't declare annotated fields but inherit some. Without a binder of their own these classes would
+	 * fall back to reflection, since <code>RetentionMagic</code> looks up binders by the exact class.
+	 */
+	private void addSubclasses(Map<TypeElement, AnnotatedClass> classes, Iterable<TypeElement> types)
+	{
+		for (TypeElement type : types)
+		{
+			if (type.getKind() == ElementKind.CLASS && !classes.containsKey(type) && AnnotatedClass.inheritsAnnotatedFields(type))
+			{
+				classes.put(type, new AnnotatedClass(type));
+			}
+			addSubclasses(classes, ElementFilter.typesIn(type.getEnclosedElements()));
+		}
+	}
+
+
+	/**
+	 * Writes the index of all annotated classes, if an index has been requested. The index contains the classes of the first round that finds any. It's not
+	 * written in the last round, since javac warns about sources generated in the last round. Classes that show up in later rounds (i.e. in code generated by
+	 * other processors) are not indexed.
+	 * <p>
+	 * The index is registered as a service, so each module can have an index of its own.
+	 * </p>
+	 */
+	private void writeIndex(Map<TypeElement, AnnotatedClass> classes)
+	{
+		if (mIndexName == null || classes.isEmpty())
+		{
+			return;
+		}
+
+		if (mIndexWritten)
+		{
+			for (AnnotatedClass annotatedClass : classes.values())
+			{
+				mMessager.printMessage(Kind.NOTE, "RetentionMagic: " + annotatedClass.typeName() + " has been generated too late to be indexed.",
+					annotatedClass.type);
+			}
+			return;
+		}
+
+		mIndexWritten = true;
+
+		Element[] originatingElements = classes.keySet().toArray(new Element[classes.size()]);
+		try
+		{
+			JavaFileObject file = mFiler.createSourceFile(mIndexName, originatingElements);
+			Writer writer = file.openWriter();
+			try
+			{
+				writer.write(mIndexGenerator.generate(mIndexName, classes.values()));
+			}
+			finally
+			{
+				writer.close();
+			}
+
+			FileObject services = mFiler.createResource(StandardLocation.CLASS_OUTPUT, "", IndexGenerator.SERVICES_FILE, originatingElements);
+			writer = services.openWriter();
+			try
+			{
+				writer.write(mIndexName);
+				writer.write("\n");
+			}
+			finally
+			{
+				writer.close();
+			}
+		}
+		catch (IOException e)
+		{
+			mMessager.printMessage(Kind.ERROR, "Can't write " + mIndexName + ": " + e.getMessage());
+		}
+	}
+
+
+	private void write(AnnotatedClass annotatedClass, String suffix, String source)
+	{
+		String packageName = annotatedClass.packageName(mElements);
+		String name = annotatedClass.generatedName(mElements, suffix);
+		try
+		{
+			JavaFileObject file = mFiler.createSourceFile(packageName.length() == 0 ? name : packageName + "." + name, annotatedClass.type);
+			Writer writer = file.openWriter();
+			try
+			{
+				writer.write(source);
+			}
+			finally
+			{
+				writer.close();
+			}
+		}
+		catch (IOException e)
+		{
+			mMessager.printMessage(Kind.ERROR, "Can't write " + name + ": " + e.getMessage(), annotatedClass.type);
+		}
+	}
+
+
+	private void note(AnnotatedClass annotatedClass, String message)
+	{
+		mMessager.printMessage(Kind.NOTE, "RetentionMagic: " + message + ". " + annotatedClass.typeName() + " falls back to reflection.", annotatedClass.type);
+	}
+}
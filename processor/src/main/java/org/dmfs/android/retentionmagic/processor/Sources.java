@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic.processor;
+
+import java.util.Map;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+
+
+/**
+ * Helpers to write generated source code.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class Sources
+{
+	/**
+	 * Don't allow instances.
+	 */
+	private Sources()
+	{
+	}
+
+
+	/**
+	 * Appends the header of a generated source file, i.e. the comment and the package declaration.
+	 */
+	static StringBuilder header(StringBuilder builder, String packageName)
+	{
+		builder.append("// Generated by the RetentionMagic annotation processor. Do not edit!\n\n");
+		if (packageName.length() > 0)
+		{
+			builder.append("package ").append(packageName).append(";\n\n\n");
+		}
+		return builder;
+	}
+
+
+	/**
+	 * Appends the declaration of the static instance of a generated binder. <code>RetentionMagic</code> uses that instance and refers to it only weakly, so
+	 * it doesn't keep the class loader of the binder alive.
+	 */
+	static StringBuilder instance(StringBuilder builder, String className)
+	{
+		return builder.append("\tpublic final static ").append(className).append(" INSTANCE = new ").append(className).append("();\n\n\n");
+	}
+
+
+	/**
+	 * Returns a Java string literal of the given value.
+	 */
+	static String literal(String value)
+	{
+		StringBuilder result = new StringBuilder(value.length() + 2);
+		result.append('"');
+		for (int i = 0, count = value.length(); i < count; ++i)
+		{
+			char c = value.charAt(i);
+			switch (c)
+			{
+				case '"':
+					result.append("\\\"");
+					break;
+				case '\\':
+					result.append("\\\\");
+					break;
+				case '\n':
+					result.append("\\n");
+					break;
+				case '\r':
+					result.append("\\r");
+					break;
+				case '\t':
+					result.append("\\t");
+					break;
+				default:
+					if (c < 0x20 || c > 0x7e)
+					{
+						result.append(String.format("\\u%04x", (int) c));
+					}
+					else
+					{
+						result.append(c);
+					}
+			}
+		}
+		result.append('"');
+		return result.toString();
+	}
+
+
+	/**
+	 * Returns the value of an annotation member, including default values.
+	 * 
+	 * @param elements
+	 *            The {@link Elements} utility.
+	 * @param element
+	 *            The annotated element.
+	 * @param annotationName
+	 *            The canonical name of the annotation.
+	 * @param member
+	 *            The name of the annotation member.
+	 * @return The value or <code>null</code> if the element doesn't have such an annotation.
+	 */
+	static Object annotationValue(Elements elements, Element element, String annotationName, String member)
+	{
+		for (AnnotationMirror annotation : element.getAnnotationMirrors())
+		{
+			if (!((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotationName))
+			{
+				continue;
+			}
+
+			for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : elements.getElementValuesWithDefaults(annotation).entrySet())
+			{
+				if (entry.getKey().getSimpleName().contentEquals(member))
+				{
+					return entry.getValue().getValue();
+				}
+			}
+		}
+		return null;
+	}
+
+
+	/**
+	 * Returns the key of a field, which is the given key or the name of the field if the key is empty.
+	 */
+	static String key(Element field, Object key)
+	{
+		return key == null || key.toString().length() == 0 ? field.getSimpleName().toString() : key.toString();
+	}
+}
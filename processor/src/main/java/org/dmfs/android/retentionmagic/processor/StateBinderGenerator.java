@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.dmfs.android.retentionmagic.processor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+
+import org.dmfs.android.retentionmagic.processor.BundleTypes.BundleType;
+
+
+/**
+ * Generates a <code>StateBinder</code> that stores and restores the fields annotated with <code>@Retain</code> and <code>@RetainArrayList</code> using direct
+ * field access and typed Bundle calls.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class StateBinderGenerator
+{
+	/**
+	 * The suffix of generated state binders. Must match the suffix <code>RetentionMagic</code> looks for.
+	 */
+	final static String SUFFIX = "_StateBinder";
+
+	private final Elements mElements;
+	private final BundleTypes mBundleTypes;
+
+
+	StateBinderGenerator(Elements elements, BundleTypes bundleTypes)
+	{
+		mElements = elements;
+		mBundleTypes = bundleTypes;
+	}
+
+
+	/**
+	 * Generates the source code of the state binder for the given class.
+	 * 
+	 * @param annotatedClass
+	 *            The {@link AnnotatedClass}.
+	 * @return The source code.
+	 * @throws UnsupportedOperationException
+	 *             if no binder can be generated for this class. The message contains the reason.
+	 */
+	String generate(AnnotatedClass annotatedClass)
+	{
+		String typeName = annotatedClass.parameterizedTypeName();
+
+		StringBuilder store = new StringBuilder(1024);
+		StringBuilder restore = new StringBuilder(1024);
+
+		for (VariableElement field : annotatedClass.retainFields)
+		{
+			checkAccessible(annotatedClass, field);
+			BundleType bundleType = mBundleTypes.fieldType(field.asType());
+			if (bundleType == null)
+			{
+				throw new UnsupportedOperationException("type of field " + field.getSimpleName() + " not supported");
+			}
+			appendField(store, restore, annotatedClass, field, bundleType,
+				Sources.annotationValue(mElements, field, RetentionMagicProcessor.RETAIN, "key"));
+		}
+
+		for (VariableElement field : annotatedClass.retainArrayListFields)
+		{
+			checkAccessible(annotatedClass, field);
+			BundleType bundleType = mBundleTypes.arrayListType(field.asType(),
+				(TypeMirror) Sources.annotationValue(mElements, field, RetentionMagicProcessor.RETAIN_ARRAY_LIST, "genericType"));
+			if (bundleType == null)
+			{
+				throw new UnsupportedOperationException("list type of field " + field.getSimpleName() + " not supported");
+			}
+			appendField(store, restore, annotatedClass, field, bundleType,
+				Sources.annotationValue(mElements, field, RetentionMagicProcessor.RETAIN_ARRAY_LIST, "key"));
+		}
+
+		StringBuilder source = Sources.header(new StringBuilder(4096), annotatedClass.packageName(mElements));
+		source.append("@SuppressWarnings({ \"unchecked\", \"rawtypes\" })\n");
+		String className = annotatedClass.generatedName(mElements, SUFFIX);
+		source.append("public final class ").append(className);
+		source.append(" implements org.dmfs.android.retentionmagic.StateBinder<").append(typeName).append(">\n{\n");
+		Sources.instance(source, className);
+		source.append("\t@Override\n");
+		source.append("\tpublic void store(").append(typeName).append(" instance, android.os.Bundle instanceState)\n\t{\n");
+		source.append(store);
+		source.append("\t}\n\n\n");
+		source.append("\t@Override\n");
+		source.append("\tpublic void restore(").append(typeName).append(" instance, android.os.Bundle instanceState)\n\t{\n");
+		source.append(restore);
+		source.append("\t}\n}\n");
+		return source.toString();
+	}
+
+
+	/**
+	 * Checks whether fields of different classes of the hierarchy use the same Bundle key, which would make them overwrite each other. <code>RetentionMagic</code>
+	 * rejects such classes at runtime. Fields of the same class that use the same key are tolerated, like they always have been.
+	 * 
+	 * @param annotatedClass
+	 *            The {@link AnnotatedClass}.
+	 * @return <code>null</code> if there is no collision, otherwise a message describing the collision.
+	 */
+	String keyCollision(AnnotatedClass annotatedClass)
+	{
+		Map<String, VariableElement> fieldsByKey = new HashMap<String, VariableElement>();
+		for (VariableElement field : annotatedClass.retainFields)
+		{
+			String collision = keyCollision(fieldsByKey, field, Sources.annotationValue(mElements, field, RetentionMagicProcessor.RETAIN, "key"));
+			if (collision != null)
+			{
+				return collision;
+			}
+		}
+		for (VariableElement field : annotatedClass.retainArrayListFields)
+		{
+			String collision = keyCollision(fieldsByKey, field, Sources.annotationValue(mElements, field, RetentionMagicProcessor.RETAIN_ARRAY_LIST, "key"));
+			if (collision != null)
+			{
+				return collision;
+			}
+		}
+		return null;
+	}
+
+
+	private static String keyCollision(Map<String, VariableElement> fieldsByKey, VariableElement field, Object key)
+	{
+		String fieldKey = Sources.key(field, key);
+		VariableElement other = fieldsByKey.put(fieldKey, field);
+		if (other != null && !other.getEnclosingElement().equals(field.getEnclosingElement()))
+		{
+			return "fields " + ((TypeElement) other.getEnclosingElement()).getQualifiedName() + "." + other.getSimpleName() + " and "
+				+ ((TypeElement) field.getEnclosingElement()).getQualifiedName() + "." + field.getSimpleName() + " use the same key " + fieldKey;
+		}
+		return null;
+	}
+
+
+	private void appendField(StringBuilder store, StringBuilder restore, AnnotatedClass annotatedClass, VariableElement field, BundleType bundleType,
+		Object key)
+	{
+		String fieldKey = Sources.key(field, key);
+		String literal = Sources.literal(fieldKey);
+		String value = annotatedClass.access(field);
+		store.append("\t\t").append(bundleType.putter("instanceState", literal, value)).append('\n');
+		restore.append("\t\t").append(value).append(" = ").append(bundleType.getter("instanceState", literal)).append(";\n");
+	}
+
+
+	private void checkAccessible(AnnotatedClass annotatedClass, VariableElement field)
+	{
+		String problem = annotatedClass.checkAccessible(mElements, field);
+		if (problem != null)
+		{
+			throw new UnsupportedOperationException(problem);
+		}
+	}
+}